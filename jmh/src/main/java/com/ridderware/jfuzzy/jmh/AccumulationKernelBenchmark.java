@@ -0,0 +1,114 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the accumulation kernels and the defuzzification sums over
+ * long discretizations, with the scalar kernels or with the kernels in use,
+ * which are the vector kernels when the JFuzzy-vector module is loaded.
+ *
+ * @author Jeff Ridder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccumulationKernelBenchmark
+{
+    /** Number of discrete values. */
+    @Param({"1000", "10000"})
+    public int discretes;
+
+    /** Whether to use the scalar kernel rather than the kernel in use. */
+    @Param({"true", "false"})
+    public boolean scalar;
+
+    /** Activation method. */
+    @Param({"MIN", "PROD"})
+    public RuleBase.ActivationMethod activation;
+
+    /** Accumulation method. */
+    @Param({"MAX", "BSUM"})
+    public RuleBase.AccumulationMethod accumulation;
+
+    private AccumulationKernel kernel;
+
+    private double[] term;
+
+    private double[] accumulator;
+
+    /**
+     * Creates a random term and accumulator.
+     */
+    @Setup
+    public void setup()
+    {
+        kernel = scalar ? AccumulationKernel.getScalar(activation, accumulation) :
+            AccumulationKernel.get(activation, accumulation);
+
+        Random random = new Random(1);
+        term = new double[discretes];
+        accumulator = new double[discretes];
+        for (int i = 0; i < discretes; i++)
+        {
+            term[i] = random.nextDouble();
+            accumulator[i] = 0.5 * random.nextDouble();
+        }
+    }
+
+    /**
+     * Accumulates the term at level 0.7.
+     * @return first discrete, to keep the work live.
+     */
+    @Benchmark
+    public double accumulate()
+    {
+        kernel.accumulate(0.7, term, 0, accumulator, 0, discretes);
+        return accumulator[0];
+    }
+
+    /**
+     * Computes the center of gravity of the accumulator.
+     * @return center of gravity.
+     */
+    @Benchmark
+    public double centerOfGravity()
+    {
+        return kernel.moment(accumulator, 0, discretes, -1., 0.001) /
+            kernel.sum(accumulator, 0, discretes);
+    }
+
+    /**
+     * Computes the center of area of the accumulator.
+     * @return index of the center of area.
+     */
+    @Benchmark
+    public int centerOfArea()
+    {
+        return kernel.halfway(accumulator, 0, discretes,
+            0.5 * kernel.sum(accumulator, 0, discretes));
+    }
+}
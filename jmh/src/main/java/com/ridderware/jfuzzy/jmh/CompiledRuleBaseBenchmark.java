@@ -0,0 +1,131 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the compiled engine on the same rule bases and inputs as
+ * EvaluateRulesBenchmark, one sample at a time and in batches.
+ *
+ * @author Jeff Ridder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledRuleBaseBenchmark
+{
+    private static final int SAMPLES = 1024;
+
+    /** "fly" for fly.fcl, otherwise the number of synthetic rules. */
+    @Param({"fly", "10", "100", "10000"})
+    public String rules;
+
+    /** Whether evaluate() fires rules through the rule index. */
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    private CompiledRuleBase compiled;
+
+    private EvalContext ctx;
+
+    private double[][] inputs;
+
+    private double[][] input_columns;
+
+    private double[] outputs;
+
+    private double[][] output_columns;
+
+    private int next;
+
+    /**
+     * Compiles the rule base and lays the samples out by row and by column.
+     * @throws IOException if fly.fcl cannot be read.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        double[] x;
+        RuleBase rule_base;
+        if (rules.equals("fly"))
+        {
+            rule_base = RuleBases.fly();
+            x = new double[SAMPLES];
+            for (int i = 0; i < x.length; i++)
+            {
+                x[i] = -180. + i * 360. / (x.length - 1);
+            }
+        }
+        else
+        {
+            rule_base = RuleBases.synthetic(Integer.parseInt(rules), 1);
+            x = RuleBases.samples(SAMPLES, 7);
+        }
+
+        rule_base.setIndexedFiring(indexed);
+        compiled = rule_base.compile();
+        ctx = compiled.createContext();
+
+        int ninputs = compiled.getNumberOfInputs();
+        inputs = new double[SAMPLES][ninputs];
+        input_columns = new double[ninputs][SAMPLES];
+        for (int s = 0; s < SAMPLES; s++)
+        {
+            for (int i = 0; i < ninputs; i++)
+            {
+                inputs[s][i] = x[(s + 97 * i) & (SAMPLES - 1)];
+                input_columns[i][s] = inputs[s][i];
+            }
+        }
+
+        outputs = new double[compiled.getNumberOfOutputs()];
+        output_columns = new double[compiled.getNumberOfOutputs()][SAMPLES];
+    }
+
+    /**
+     * Evaluates the next sample.
+     * @return first crisp output.
+     */
+    @Benchmark
+    public double evaluate()
+    {
+        next = (next + 1) & (SAMPLES - 1);
+        compiled.evaluate(inputs[next], outputs, ctx);
+        return outputs[0];
+    }
+
+    /**
+     * Evaluates all samples as one batch.  Reported time is per sample.
+     * @return first crisp output of the last sample.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double evaluateBatch()
+    {
+        compiled.evaluateBatch(input_columns, output_columns, ctx);
+        return output_columns[0][SAMPLES - 1];
+    }
+}
@@ -0,0 +1,101 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks ControlSurface.evaluate() on the two-input fly.fcl controller
+ * at several grid resolutions, against evaluateRules() on the same inputs.
+ *
+ * @author Jeff Ridder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlSurfaceBenchmark
+{
+    /** Number of grid points of each input. */
+    @Param({"33", "129", "513"})
+    public int resolution;
+
+    private RuleBase rule_base;
+
+    private ControlSurface surface;
+
+    private double[][] x;
+
+    private double[] outputs;
+
+    private int next;
+
+    /**
+     * Loads fly.fcl, builds its surface and the samples.
+     * @throws IOException if fly.fcl cannot be read.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        rule_base = RuleBases.fly();
+        surface = ControlSurface.build(rule_base, resolution);
+        outputs = new double[surface.getNumberOfOutputs()];
+
+        double[] samples = RuleBases.samples(2048, 11);
+        x = new double[1024][2];
+        for (int i = 0; i < x.length; i++)
+        {
+            x[i][0] = 1.8 * samples[2 * i];
+            x[i][1] = samples[2 * i + 1];
+        }
+    }
+
+    /**
+     * Interpolates the surface at the next sample.
+     * @return crisp output.
+     */
+    @Benchmark
+    public double surface()
+    {
+        next = (next + 1) & 1023;
+        surface.evaluate(x[next], outputs);
+
+        return outputs[0];
+    }
+
+    /**
+     * Evaluates the rule base at the next sample.
+     * @return crisp output.
+     */
+    @Benchmark
+    public double evaluateRules()
+    {
+        next = (next + 1) & 1023;
+        rule_base.fuzzify(0, x[next][0]);
+        rule_base.fuzzify(1, x[next][1]);
+        rule_base.evaluateRules();
+
+        return rule_base.getCrispOutput(0);
+    }
+}
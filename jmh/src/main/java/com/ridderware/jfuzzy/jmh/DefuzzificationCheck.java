@@ -0,0 +1,227 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.*;
+
+/**
+ * Checks that analytic defuzzification agrees with discrete
+ * defuzzification on outputs whose terms are all single points.  The
+ * singletons sit on the discrete grid, so both modes see the same point
+ * masses, and the crisp outputs must match for every activation,
+ * accumulation and defuzzification method.  It also checks that analytic
+ * COGS is refused for an output that mixes singletons with other terms.
+ * The check exits with status 1 on any failure, which fails the build of
+ * this module.
+ *
+ * @author Jeff Ridder
+ */
+public final class DefuzzificationCheck
+{
+    private static final int SAMPLES = 1001;
+
+    private static final double TOLERANCE = 1e-9;
+
+    //  Output universe [0, 8] with a grid step of 1/16, which every
+    //  singleton below lies on exactly.
+    private static final int NUM_DISCRETES = 129;
+
+    private static final double[] SINGLETONS =
+    {
+        0., 2.5, 3.5, 5.25, 8.
+    };
+
+    private DefuzzificationCheck()
+    {
+    }
+
+    /**
+     * Runs every combination of methods and exits with status 1 on any
+     * mismatch.
+     * @param args not used.
+     */
+    public static void main(String[] args)
+    {
+        boolean failed = false;
+
+        for (RuleBase.ActivationMethod activation :
+            RuleBase.ActivationMethod.values())
+        {
+            for (RuleBase.AccumulationMethod accumulation :
+                RuleBase.AccumulationMethod.values())
+            {
+                for (OutputVariable.DefuzzificationMethod method :
+                    OutputVariable.DefuzzificationMethod.values())
+                {
+                    failed |= check(activation, accumulation, method);
+                }
+            }
+        }
+
+        failed |= checkRefused();
+
+        if (failed)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares analytic and discrete defuzzification of a singleton
+     * output over inputs spanning the input universe.
+     * @param activation activation method.
+     * @param accumulation accumulation method.
+     * @param method defuzzification method.
+     * @return true if the check failed.
+     */
+    private static boolean check(RuleBase.ActivationMethod activation,
+        RuleBase.AccumulationMethod accumulation,
+        OutputVariable.DefuzzificationMethod method)
+    {
+        String name = activation + "/" + accumulation + "/" + method;
+
+        RuleBase discrete = singletons(activation, accumulation, method, false);
+        RuleBase analytic = singletons(activation, accumulation, method, true);
+        RuleBaseMetrics metrics = new RuleBaseMetrics(analytic);
+        analytic.setMetrics(metrics);
+
+        double worst = 0.;
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            double x = RuleBases.SYNTHETIC_MIN + i *
+                (RuleBases.SYNTHETIC_MAX - RuleBases.SYNTHETIC_MIN) /
+                (SAMPLES - 1);
+
+            double expected = evaluate(discrete, x);
+            double actual = evaluate(analytic, x);
+            worst = Math.max(worst, Math.abs(expected - actual));
+        }
+
+        System.out.println(name + ": largest difference " + worst +
+            ", defaulted " + metrics.getDefaultCount(0) + " of " + SAMPLES);
+
+        if (worst > TOLERANCE)
+        {
+            System.out.println("FAILED: " + name +
+                " analytic output differs from discrete output");
+            return true;
+        }
+        if (metrics.getDefaultCount(0) != 0)
+        {
+            System.out.println("FAILED: " + name +
+                " analytic output fell back to the default value");
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks that analytic COGS is refused when singletons are mixed with
+     * other terms.
+     * @return true if the check failed.
+     */
+    private static boolean checkRefused()
+    {
+        OutputVariable ovar = new OutputVariable("mixed");
+        ovar.setDefuzzificationMethod(OutputVariable.DefuzzificationMethod.COGS);
+        MembershipFunction point = new MembershipFunction("point");
+        point.addDataPoint(1., 1.);
+        ovar.addTerm(point);
+        MembershipFunction ramp = new MembershipFunction("ramp");
+        ramp.addDataPoint(0., 0.);
+        ramp.addDataPoint(2., 1.);
+        ovar.addTerm(ramp);
+
+        try
+        {
+            ovar.setAnalyticDefuzzification(true);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("mixed COGS: refused");
+            return false;
+        }
+
+        System.out.println("FAILED: mixed COGS output accepted analytic " +
+            "defuzzification");
+        return true;
+    }
+
+    /**
+     * Fuzzifies the input, evaluates the rules and returns the output.
+     * @param rule_base rule base.
+     * @param x crisp input.
+     * @return crisp output.
+     */
+    private static double evaluate(RuleBase rule_base, double x)
+    {
+        rule_base.fuzzify(0, x);
+        rule_base.evaluateRules();
+        return rule_base.getCrispOutput(0);
+    }
+
+    /**
+     * Builds a rule base with one synthetic input and one output of
+     * singleton terms.  Each input term concludes a singleton, and a
+     * second weighted rule per term concludes the next singleton, so that
+     * accumulation merges coincident points.
+     * @param activation activation method.
+     * @param accumulation accumulation method.
+     * @param method defuzzification method.
+     * @param analytic true for analytic defuzzification.
+     * @return rule base.
+     */
+    private static RuleBase singletons(RuleBase.ActivationMethod activation,
+        RuleBase.AccumulationMethod accumulation,
+        OutputVariable.DefuzzificationMethod method, boolean analytic)
+    {
+        RuleBase rule_base = new RuleBase();
+        rule_base.setActivationMethod(activation);
+        rule_base.setAccumulationMethod(accumulation);
+
+        Variable ivar = new Variable("in");
+        RuleBases.addTerms(ivar);
+        rule_base.addInputVariable(ivar);
+
+        OutputVariable ovar = new OutputVariable("out");
+        for (int s = 0; s < SINGLETONS.length; s++)
+        {
+            MembershipFunction term = new MembershipFunction("s" + s);
+            term.addDataPoint(SINGLETONS[s], 0.5 + 0.5 * s / SINGLETONS.length);
+            ovar.addTerm(term);
+        }
+        ovar.setDefuzzificationMethod(method);
+        ovar.setDefaultValue(-1.);
+        ovar.setNumDiscretes(NUM_DISCRETES);
+        ovar.setAnalyticDefuzzification(analytic);
+        ovar.discretize();
+        rule_base.addOutputVariable(ovar);
+
+        for (int t = 0; t < RuleBases.SYNTHETIC_TERMS; t++)
+        {
+            rule_base.addRule(new Rule(new SubCondition(ivar, t),
+                new Conclusion(ovar, t % SINGLETONS.length, 1.)));
+            rule_base.addRule(new Rule(new SubCondition(ivar, t),
+                new Conclusion(ovar, (t + 1) % SINGLETONS.length, 0.6)));
+        }
+
+        return rule_base;
+    }
+}
@@ -0,0 +1,76 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks OutputVariable.defuzzify() on the accumulated output of the
+ * fly.fcl controller, discretized or analytic.
+ *
+ * @author Jeff Ridder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DefuzzifyBenchmark
+{
+    /** Defuzzification method. */
+    @Param({"COG", "COA"})
+    public OutputVariable.DefuzzificationMethod method;
+
+    /** Whether the output uses analytic defuzzification. */
+    @Param({"false", "true"})
+    public boolean analytic;
+
+    private OutputVariable ovar;
+
+    /**
+     * Loads fly.fcl and evaluates it once so that several output terms are
+     * accumulated.
+     * @throws IOException if fly.fcl cannot be read.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        RuleBase rule_base = RuleBases.fly();
+        ovar = rule_base.getOutputVariable("Roll Angle");
+        ovar.setDefuzzificationMethod(method);
+        ovar.setAnalyticDefuzzification(analytic);
+
+        rule_base.fuzzifyVariable("AoA", -30.);
+        rule_base.evaluateRules();
+    }
+
+    /**
+     * Defuzzifies the accumulated output.
+     * @return crisp value.
+     */
+    @Benchmark
+    public double defuzzify()
+    {
+        return ovar.defuzzify();
+    }
+}
@@ -0,0 +1,141 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the full fuzzify, evaluateRules() and getCrispOutput() path on
+ * fly.fcl and on synthetic rule bases of 10, 100 and 10,000 rules, with
+ * discrete and with analytic defuzzification, firing every rule or only
+ * the indexed candidates, evaluating fully or incrementally, and with or
+ * without metrics.
+ *
+ * @author Jeff Ridder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateRulesBenchmark
+{
+    /** "fly" for fly.fcl, otherwise the number of synthetic rules. */
+    @Param({"fly", "10", "100", "10000"})
+    public String rules;
+
+    /** Whether the output uses analytic defuzzification. */
+    @Param({"false", "true"})
+    public boolean analytic;
+
+    /** Whether rules are fired through the rule index. */
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    /** Whether the rule base is evaluated incrementally. */
+    @Param({"false", "true"})
+    public boolean incremental;
+
+    /** Whether metrics are recorded. */
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private RuleBase rule_base;
+
+    private Variable[] ivars;
+
+    private OutputVariable ovar;
+
+    private double[] x;
+
+    private int next;
+
+    /**
+     * Builds the rule base and the samples.
+     * @throws IOException if fly.fcl cannot be read.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        if (rules.equals("fly"))
+        {
+            rule_base = RuleBases.fly();
+            x = new double[1024];
+            for (int i = 0; i < x.length; i++)
+            {
+                x[i] = -180. + i * 360. / (x.length - 1);
+            }
+        }
+        else
+        {
+            rule_base = RuleBases.synthetic(Integer.parseInt(rules), 1);
+            x = RuleBases.samples(1024, 7);
+        }
+
+        rule_base.setIndexedFiring(indexed);
+        rule_base.setIncrementalEvaluation(incremental);
+        if (metrics)
+        {
+            rule_base.setMetrics(new RuleBaseMetrics(rule_base));
+        }
+        ivars = rule_base.getInputVariables();
+        ovar = rule_base.getOutputVariables()[0];
+        ovar.setAnalyticDefuzzification(analytic);
+    }
+
+    /**
+     * Fuzzifies every input with the next sample, fires the rules and reads
+     * the crisp output.
+     * @return crisp output.
+     */
+    @Benchmark
+    public double evaluateRules()
+    {
+        next = (next + 1) & 1023;
+        for (int i = 0; i < ivars.length; i++)
+        {
+            rule_base.fuzzifyVariable(ivars[i], x[(next + 97 * i) & 1023]);
+        }
+
+        rule_base.evaluateRules();
+
+        return rule_base.getCrispOutput(ovar);
+    }
+
+    /**
+     * Fuzzifies one input with the next sample, as in a control loop where
+     * few inputs change between ticks, fires the rules and reads the crisp
+     * output.
+     * @return crisp output.
+     */
+    @Benchmark
+    public double evaluateOneInputChanged()
+    {
+        next = (next + 1) & 1023;
+        rule_base.fuzzifyVariable(ivars[next % ivars.length], x[next]);
+
+        rule_base.evaluateRules();
+
+        return rule_base.getCrispOutput(ovar);
+    }
+}
@@ -0,0 +1,81 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.MembershipFunction;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks MembershipFunction.calculateDOM() on piecewise-linear curves of
+ * increasing resolution.
+ *
+ * @author Jeff Ridder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MembershipFunctionBenchmark
+{
+    /** Number of breakpoints of the curve. */
+    @Param({"3", "50", "500"})
+    public int points;
+
+    private MembershipFunction term;
+
+    private double[] x;
+
+    private int next;
+
+    /**
+     * Builds a curve with the requested number of breakpoints spread evenly
+     * over the synthetic universe, with random degrees of membership.
+     */
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        term = new MembershipFunction("curve");
+
+        double step = (RuleBases.SYNTHETIC_MAX - RuleBases.SYNTHETIC_MIN) /
+            (points - 1);
+        for (int i = 0; i < points; i++)
+        {
+            term.addDataPoint(RuleBases.SYNTHETIC_MIN + i * step,
+                random.nextDouble());
+        }
+
+        x = RuleBases.samples(1024, 7);
+    }
+
+    /**
+     * Calculates the degree of membership of the next sample.
+     * @return degree of membership.
+     */
+    @Benchmark
+    public double calculateDOM()
+    {
+        next = (next + 1) & 1023;
+        return term.calculateDOM(x[next]);
+    }
+}
@@ -0,0 +1,178 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Rule bases shared by the benchmarks:  the fly.fcl controller from the
+ * examples, and synthetic rule bases of any size built from a fixed seed so
+ * that every run benchmarks the same rules.
+ *
+ * @author Jeff Ridder
+ */
+public final class RuleBases
+{
+    /** Number of input variables of a synthetic rule base. */
+    public static final int SYNTHETIC_INPUTS = 4;
+
+    /** Number of terms of every synthetic variable. */
+    public static final int SYNTHETIC_TERMS = 7;
+
+    /** Lower end of the universe of every synthetic variable. */
+    public static final double SYNTHETIC_MIN = -100.;
+
+    /** Upper end of the universe of every synthetic variable. */
+    public static final double SYNTHETIC_MAX = 100.;
+
+    private RuleBases()
+    {
+    }
+
+    /**
+     * Reads the fly.fcl controller, with its output discretized as in the
+     * examples.
+     * @return fly rule base.
+     * @throws IOException if fly.fcl cannot be read.
+     */
+    public static RuleBase fly() throws IOException
+    {
+        File fcl = File.createTempFile("fly", ".fcl");
+        fcl.deleteOnExit();
+
+        try (InputStream in = RuleBases.class.getResourceAsStream("/fly.fcl"))
+        {
+            if (in == null)
+            {
+                throw new IOException("fly.fcl is not on the classpath");
+            }
+            Files.copy(in, fcl.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        RuleBase rule_base = new RuleBase();
+        rule_base.readFCL(fcl);
+
+        OutputVariable ovar = rule_base.getOutputVariable("Roll Angle");
+        ovar.setNumDiscretes(361);
+        ovar.discretize();
+
+        return rule_base;
+    }
+
+    /**
+     * Builds a synthetic rule base with SYNTHETIC_INPUTS inputs and one
+     * output, each with SYNTHETIC_TERMS evenly spread triangular terms.
+     * Every rule ANDs one to three randomly chosen input conditions.
+     * @param num_rules number of rules.
+     * @param seed random seed.
+     * @return synthetic rule base.
+     */
+    public static RuleBase synthetic(int num_rules, long seed)
+    {
+        Random random = new Random(seed);
+        RuleBase rule_base = new RuleBase();
+
+        Variable[] ivars = new Variable[SYNTHETIC_INPUTS];
+        for (int i = 0; i < ivars.length; i++)
+        {
+            ivars[i] = new Variable("in" + i);
+            addTerms(ivars[i]);
+            rule_base.addInputVariable(ivars[i]);
+        }
+
+        OutputVariable ovar = new OutputVariable("out");
+        addTerms(ovar);
+        ovar.discretize();
+        rule_base.addOutputVariable(ovar);
+
+        for (int r = 0; r < num_rules; r++)
+        {
+            int conditions = 1 + random.nextInt(3);
+            ICondition condition = null;
+            for (int c = 0; c < conditions; c++)
+            {
+                ICondition sub = new SubCondition(
+                    ivars[random.nextInt(ivars.length)],
+                    random.nextInt(SYNTHETIC_TERMS));
+                condition = condition == null ? sub : new And(sub, condition);
+            }
+
+            Conclusion conclusion = new Conclusion(ovar,
+                random.nextInt(SYNTHETIC_TERMS), 0.5 + 0.5 * random.nextDouble());
+            rule_base.addRule(new Rule(condition, conclusion));
+        }
+
+        return rule_base;
+    }
+
+    /**
+     * Adds SYNTHETIC_TERMS triangular terms spread evenly over the universe,
+     * with shoulders at both ends.
+     * @param var variable to add the terms to.
+     */
+    public static void addTerms(Variable var)
+    {
+        double width = (SYNTHETIC_MAX - SYNTHETIC_MIN) / (SYNTHETIC_TERMS - 1);
+
+        for (int t = 0; t < SYNTHETIC_TERMS; t++)
+        {
+            double peak = SYNTHETIC_MIN + t * width;
+            MembershipFunction term = new MembershipFunction("t" + t);
+
+            if (t > 0)
+            {
+                term.addDataPoint(peak - width, 0.);
+            }
+            term.addDataPoint(peak, 1.);
+            if (t < SYNTHETIC_TERMS - 1)
+            {
+                term.addDataPoint(peak + width, 0.);
+            }
+
+            var.addTerm(term);
+        }
+    }
+
+    /**
+     * Returns crisp inputs spread over the synthetic universe, slightly
+     * beyond both ends, from a fixed seed.
+     * @param count number of samples.
+     * @param seed random seed.
+     * @return samples.
+     */
+    public static double[] samples(int count, long seed)
+    {
+        Random random = new Random(seed);
+        double[] x = new double[count];
+        double span = SYNTHETIC_MAX - SYNTHETIC_MIN;
+
+        for (int i = 0; i < count; i++)
+        {
+            x[i] = SYNTHETIC_MIN - 0.05 * span + 1.1 * span * random.nextDouble();
+        }
+
+        return x;
+    }
+}
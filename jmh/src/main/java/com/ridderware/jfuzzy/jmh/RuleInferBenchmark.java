@@ -0,0 +1,93 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks Rule.infer() for one rule of the fly.fcl controller under each
+ * combination of activation and accumulation method.
+ *
+ * @author Jeff Ridder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleInferBenchmark
+{
+    /** Activation method. */
+    @Param({"MIN", "PROD"})
+    public RuleBase.ActivationMethod activation;
+
+    /** Accumulation method. */
+    @Param({"MAX", "BSUM"})
+    public RuleBase.AccumulationMethod accumulation;
+
+    private RuleBase rule_base;
+
+    private Rule rule;
+
+    private OutputVariable ovar;
+
+    /**
+     * Loads fly.fcl and fuzzifies an angle of arrival that fires the rule
+     * being measured.
+     * @throws IOException if fly.fcl cannot be read.
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        rule_base = RuleBases.fly();
+        ovar = rule_base.getOutputVariable("Roll Angle");
+        rule_base.fuzzifyVariable("AoA", -30.);
+
+        //  Take the rule with the widest output term that fires.
+        int widest = -1;
+        for (Rule r : rule_base.getRules())
+        {
+            Conclusion c = r.getConclusion();
+            int width = c.getEndX() - c.getStartX();
+            if (r.getCondition().aggregate(rule_base.getAndOperator(),
+                rule_base.getOrOperator()) > 0. && width > widest)
+            {
+                widest = width;
+                rule = r;
+            }
+        }
+    }
+
+    /**
+     * Resets the output discretes and infers the rule.
+     * @return first discrete, to keep the work live.
+     */
+    @Benchmark
+    public double infer()
+    {
+        ovar.resetDiscretes();
+        rule.infer(activation, accumulation, rule_base.getAndOperator(),
+            rule_base.getOrOperator());
+        return ovar.getDiscreteY(0);
+    }
+}
@@ -0,0 +1,72 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.jmh;
+
+import com.ridderware.jfuzzy.Variable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks Variable.fuzzify() on a synthetic input variable, calculating
+ * each term or reading a lookup table.
+ *
+ * @author Jeff Ridder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariableBenchmark
+{
+    /** Lookup table resolution, 0 for none. */
+    @Param({"0", "1001"})
+    public int lookup;
+
+    private Variable variable;
+
+    private double[] x;
+
+    private int next;
+
+    /**
+     * Builds the variable and the samples.
+     */
+    @Setup
+    public void setup()
+    {
+        variable = new Variable("in");
+        RuleBases.addTerms(variable);
+        variable.setLookupResolution(lookup);
+        x = RuleBases.samples(1024, 7);
+    }
+
+    /**
+     * Fuzzifies the next sample.
+     * @return degree of membership of the first term, to keep the work live.
+     */
+    @Benchmark
+    public double fuzzify()
+    {
+        next = (next + 1) & 1023;
+        variable.fuzzify(x[next]);
+        return variable.getTerm(0).getDOM();
+    }
+}
@@ -0,0 +1,353 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.lang.reflect.Method;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Activates a discretized output term and accumulates it into the
+ * discretized output, in one pass over primitive arrays, and computes the
+ * sums that defuzzify the discretized output.  There is one kernel for each
+ * pair of activation and accumulation methods, so the inner loop has no
+ * branches on the methods and can be inlined and vectorized by the JIT.  A
+ * rule base picks its kernel once, when its methods are set.
+ *
+ * The kernels here are scalar.  If the optional JFuzzy-vector module is on
+ * the class path, and the jdk.incubator.vector module is available to it,
+ * its Vector API kernels are loaded instead.  They give the same results up
+ * to the rounding of the summation order.
+ *
+ * @author Jeff Ridder
+ */
+public abstract class AccumulationKernel
+{
+    private static final Logger logger =
+        LogManager.getLogger(AccumulationKernel.class);
+
+    //  Factory of the optional vector kernels.
+    private static final String VECTOR_KERNELS =
+        "com.ridderware.jfuzzy.vector.VectorKernels";
+
+    private final RuleBase.ActivationMethod activation_method;
+
+    private final RuleBase.AccumulationMethod accumulation_method;
+
+    //  Scalar kernels, by activation then accumulation method.
+    private static final AccumulationKernel[][] scalar =
+        {
+            {
+                new MinMax(), new MinBoundedSum()
+            },
+            {
+                new ProdMax(), new ProdBoundedSum()
+            }
+        };
+
+    //  Kernels in use:  the vector kernels if available, else scalar.
+    private static final AccumulationKernel[][] kernels = load();
+
+    /**
+     * Creates a new instance of AccumulationKernel.
+     * @param activation_method activation method implemented.
+     * @param accumulation_method accumulation method implemented.
+     */
+    protected AccumulationKernel(RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method)
+    {
+        this.activation_method = activation_method;
+        this.accumulation_method = accumulation_method;
+    }
+
+    /**
+     * Returns the kernel for the pair of methods.
+     * @param activation_method activation method.
+     * @param accumulation_method accumulation method.
+     * @return kernel.
+     */
+    public static AccumulationKernel get(
+        RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method)
+    {
+        return kernels[activation_method.ordinal()][accumulation_method.ordinal()];
+    }
+
+    /**
+     * Returns the scalar kernel for the pair of methods, whether or not
+     * vector kernels are available.
+     * @param activation_method activation method.
+     * @param accumulation_method accumulation method.
+     * @return scalar kernel.
+     */
+    public static AccumulationKernel getScalar(
+        RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method)
+    {
+        return scalar[activation_method.ordinal()][accumulation_method.ordinal()];
+    }
+
+    /**
+     * Returns the vector kernels if their module can be loaded, otherwise
+     * the scalar kernels.  The vector kernels are created by the static
+     * method create(ActivationMethod, AccumulationMethod) of their factory.
+     * @return kernels, by activation then accumulation method.
+     */
+    private static AccumulationKernel[][] load()
+    {
+        try
+        {
+            Class<?> factory = Class.forName(VECTOR_KERNELS);
+            Method create = factory.getMethod("create",
+                RuleBase.ActivationMethod.class,
+                RuleBase.AccumulationMethod.class);
+
+            RuleBase.ActivationMethod[] acts =
+                RuleBase.ActivationMethod.values();
+            RuleBase.AccumulationMethod[] accus =
+                RuleBase.AccumulationMethod.values();
+            AccumulationKernel[][] loaded =
+                new AccumulationKernel[acts.length][accus.length];
+            for (int i = 0; i < acts.length; i++)
+            {
+                for (int j = 0; j < accus.length; j++)
+                {
+                    loaded[i][j] =
+                        (AccumulationKernel) create.invoke(null, acts[i], accus[j]);
+                }
+            }
+
+            return loaded;
+        }
+        catch (ClassNotFoundException ex)
+        {
+            return scalar;
+        }
+        catch (ReflectiveOperationException | LinkageError | ClassCastException ex)
+        {
+            //  Typically the jdk.incubator.vector module was not added.
+            logger.error("Vector kernels could not be loaded, using scalar " +
+                "kernels: " + ex);
+            return scalar;
+        }
+    }
+
+    /**
+     * Returns the activation method implemented by this kernel.
+     * @return activation method.
+     */
+    public RuleBase.ActivationMethod getActivationMethod()
+    {
+        return this.activation_method;
+    }
+
+    /**
+     * Returns the accumulation method implemented by this kernel.
+     * @return accumulation method.
+     */
+    public RuleBase.AccumulationMethod getAccumulationMethod()
+    {
+        return this.accumulation_method;
+    }
+
+    /**
+     * Activates count discrete values of a term to the level and
+     * accumulates them:  for i in [0, count), accumulator[accumulator_offset
+     * + i] is combined with the activation of term[term_offset + i].
+     * @param level activation level.
+     * @param term discretized term.
+     * @param term_offset index of the first term value.
+     * @param accumulator discretized output.
+     * @param accumulator_offset index of the first output value.
+     * @param count number of values.
+     */
+    public abstract void accumulate(double level, double[] term,
+        int term_offset, double[] accumulator, int accumulator_offset,
+        int count);
+
+    /**
+     * Returns the sum of values[offset..offset+count).
+     * @param values values.
+     * @param offset index of the first value.
+     * @param count number of values.
+     * @return sum.
+     */
+    public double sum(double[] values, int offset, int count)
+    {
+        double sum = 0.;
+        for (int i = 0; i < count; i++)
+        {
+            sum += values[offset + i];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Returns the moment of values[offset..offset+count) about zero, where
+     * value i lies at x0 + i * dx.
+     * @param values values.
+     * @param offset index of the first value.
+     * @param count number of values.
+     * @param x0 position of the first value.
+     * @param dx spacing of the values.
+     * @return sum over i of (x0 + i * dx) * values[offset + i].
+     */
+    public double moment(double[] values, int offset, int count, double x0,
+        double dx)
+    {
+        double moment = 0.;
+        for (int i = 0; i < count; i++)
+        {
+            moment += (x0 + i * dx) * values[offset + i];
+        }
+
+        return moment;
+    }
+
+    /**
+     * Returns the first i for which the sum of values[offset..offset+i]
+     * exceeds half, for center of area defuzzification.
+     * @param values values.
+     * @param offset index of the first value.
+     * @param count number of values.
+     * @param half sum to exceed.
+     * @return i, or -1 if the sum of all the values does not exceed half.
+     */
+    public int halfway(double[] values, int offset, int count, double half)
+    {
+        double sum = 0.;
+        for (int i = 0; i < count; i++)
+        {
+            sum += values[offset + i];
+
+            if (sum > half)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * MIN activation, MAX accumulation.
+     */
+    private static final class MinMax extends AccumulationKernel
+    {
+        /**
+         * Creates a new instance of MinMax.
+         */
+        MinMax()
+        {
+            super(RuleBase.ActivationMethod.MIN, RuleBase.AccumulationMethod.MAX);
+        }
+
+        @Override
+        public void accumulate(double level, double[] term, int term_offset,
+            double[] accumulator, int accumulator_offset, int count)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                double value = Math.min(level, term[term_offset + i]);
+                accumulator[accumulator_offset + i] =
+                    Math.max(value, accumulator[accumulator_offset + i]);
+            }
+        }
+    }
+
+    /**
+     * MIN activation, BSUM accumulation.
+     */
+    private static final class MinBoundedSum extends AccumulationKernel
+    {
+        /**
+         * Creates a new instance of MinBoundedSum.
+         */
+        MinBoundedSum()
+        {
+            super(RuleBase.ActivationMethod.MIN, RuleBase.AccumulationMethod.BSUM);
+        }
+
+        @Override
+        public void accumulate(double level, double[] term, int term_offset,
+            double[] accumulator, int accumulator_offset, int count)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                double value = Math.min(level, term[term_offset + i]);
+                accumulator[accumulator_offset + i] =
+                    Math.min(1., value + accumulator[accumulator_offset + i]);
+            }
+        }
+    }
+
+    /**
+     * PROD activation, MAX accumulation.
+     */
+    private static final class ProdMax extends AccumulationKernel
+    {
+        /**
+         * Creates a new instance of ProdMax.
+         */
+        ProdMax()
+        {
+            super(RuleBase.ActivationMethod.PROD, RuleBase.AccumulationMethod.MAX);
+        }
+
+        @Override
+        public void accumulate(double level, double[] term, int term_offset,
+            double[] accumulator, int accumulator_offset, int count)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                double value = level * term[term_offset + i];
+                accumulator[accumulator_offset + i] =
+                    Math.max(value, accumulator[accumulator_offset + i]);
+            }
+        }
+    }
+
+    /**
+     * PROD activation, BSUM accumulation.
+     */
+    private static final class ProdBoundedSum extends AccumulationKernel
+    {
+        /**
+         * Creates a new instance of ProdBoundedSum.
+         */
+        ProdBoundedSum()
+        {
+            super(RuleBase.ActivationMethod.PROD,
+                RuleBase.AccumulationMethod.BSUM);
+        }
+
+        @Override
+        public void accumulate(double level, double[] term, int term_offset,
+            double[] accumulator, int accumulator_offset, int count)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                double value = level * term[term_offset + i];
+                accumulator[accumulator_offset + i] =
+                    Math.min(1., value + accumulator[accumulator_offset + i]);
+            }
+        }
+    }
+}
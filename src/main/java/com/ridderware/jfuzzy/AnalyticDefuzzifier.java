@@ -0,0 +1,575 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.util.Arrays;
+
+/**
+ * Exact defuzzification of piecewise-linear output terms, without
+ * discretizing the output.  The activated terms of an output variable are
+ * collected with add(), and defuzzify() computes the center of gravity or
+ * center of area of their accumulation in closed form.
+ *
+ * Every activated term is piecewise linear over its own data points (and
+ * zero outside them, as in discrete inference), as is its activation under
+ * MIN or PROD.  Cutting the output at every data point, and at every point
+ * where a MIN activation level crosses its term, leaves intervals on which
+ * every activated term is linear.  Within an interval the MAX accumulation
+ * is cut again where two terms cross and the BSUM accumulation where the
+ * sum crosses 1, after which the accumulated output is one straight piece,
+ * whose area and moment are integrated exactly.
+ *
+ * Single-point (singleton) terms have no area.  When every activated term
+ * is a singleton, or the method is COGS, the singletons are instead taken
+ * as point masses weighted by their activated value, accumulated where
+ * they coincide, and the crisp value is their weighted mean (or, for COA,
+ * the point where their cumulative weight passes half), as the
+ * discretized output gives.  Under COGS, terms with more than one point
+ * are then not weighed; OutputVariable refuses such mixed outputs.
+ *
+ * @author Jeff Ridder
+ */
+final class AnalyticDefuzzifier
+{
+    //  Activated terms:  data points x[first..last], y[first..last] of each.
+    private double[][] term_x = new double[8][];
+
+    private double[][] term_y = new double[8][];
+
+    private int[] term_first = new int[8];
+
+    private int[] term_last = new int[8];
+
+    private double[] term_level = new double[8];
+
+    private int count;
+
+    //  Scratch.
+    private double[] cuts = new double[32];
+
+    private double[] sub_cuts = new double[32];
+
+    private double[] value_a = new double[8];
+
+    private double[] value_b = new double[8];
+
+    //  Results of the last walk over the pieces.
+    private double area;
+
+    private double moment;
+
+    private double found_x;
+
+    /**
+     * Clears the activated terms.
+     */
+    void reset()
+    {
+        count = 0;
+    }
+
+    /**
+     * Returns the number of activated terms.
+     * @return number of terms.
+     */
+    int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Adds an activated term.
+     * @param x x-values of the term's data points.
+     * @param y y-values of the term's data points.
+     * @param first index of the first data point of the term.
+     * @param last index of the last data point of the term.
+     * @param level activation level.
+     */
+    void add(double[] x, double[] y, int first, int last, double level)
+    {
+        if (count == term_x.length)
+        {
+            int n = 2 * count;
+            term_x = Arrays.copyOf(term_x, n);
+            term_y = Arrays.copyOf(term_y, n);
+            term_first = Arrays.copyOf(term_first, n);
+            term_last = Arrays.copyOf(term_last, n);
+            term_level = Arrays.copyOf(term_level, n);
+            value_a = new double[n];
+            value_b = new double[n];
+        }
+
+        term_x[count] = x;
+        term_y[count] = y;
+        term_first[count] = first;
+        term_last[count] = last;
+        term_level[count] = level;
+        count++;
+    }
+
+    /**
+     * Defuzzifies the accumulation of the activated terms.
+     * @param activation_method activation method.
+     * @param accumulation_method accumulation method.
+     * @param method defuzzification method.  COGS is treated as COG, except
+     * that singletons are taken as point masses.
+     * @param default_value value returned if nothing is activated.
+     * @return crisp value.
+     */
+    double defuzzify(RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method,
+        OutputVariable.DefuzzificationMethod method, double default_value)
+    {
+        if (accumulation_method == RuleBase.AccumulationMethod.MAX)
+        {
+            mergeRepeatedTerms();
+        }
+
+        int singletons = 0;
+        for (int j = 0; j < count; j++)
+        {
+            if (term_first[j] == term_last[j])
+            {
+                singletons++;
+            }
+        }
+
+        if (singletons > 0 && (singletons == count ||
+            method == OutputVariable.DefuzzificationMethod.COGS))
+        {
+            return defuzzifyPoints(activation_method, accumulation_method,
+                method, default_value);
+        }
+
+        walk(activation_method, accumulation_method, -1.);
+
+        if (!(area > 0.))
+        {
+            return default_value;
+        }
+
+        if (method == OutputVariable.DefuzzificationMethod.COA)
+        {
+            walk(activation_method, accumulation_method, 0.5 * area);
+            return found_x;
+        }
+
+        return moment / area;
+    }
+
+    /**
+     * Defuzzifies the activated singletons as point masses.
+     * @param activation_method activation method.
+     * @param accumulation_method accumulation method.
+     * @param method defuzzification method.
+     * @param default_value value returned if nothing is activated.
+     * @return crisp value.
+     */
+    private double defuzzifyPoints(RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method,
+        OutputVariable.DefuzzificationMethod method, double default_value)
+    {
+        boolean min = activation_method == RuleBase.ActivationMethod.MIN;
+        boolean max = accumulation_method == RuleBase.AccumulationMethod.MAX;
+
+        //  Point masses in order of x, in value_a (x) and value_b (weight),
+        //  accumulated where they coincide.
+        int n = 0;
+        for (int j = 0; j < count; j++)
+        {
+            int first = term_first[j];
+            if (first != term_last[j])
+            {
+                continue;
+            }
+
+            double x = term_x[j][first];
+            double y = term_y[j][first];
+            double w = min ? Math.min(term_level[j], y) : term_level[j] * y;
+
+            int k = n;
+            while (k > 0 && value_a[k - 1] > x)
+            {
+                k--;
+            }
+
+            if (k > 0 && value_a[k - 1] == x)
+            {
+                double v = value_b[k - 1];
+                value_b[k - 1] = max ? Math.max(v, w) : Math.min(1., v + w);
+                continue;
+            }
+
+            System.arraycopy(value_a, k, value_a, k + 1, n - k);
+            System.arraycopy(value_b, k, value_b, k + 1, n - k);
+            value_a[k] = x;
+            value_b[k] = max ? w : Math.min(1., w);
+            n++;
+        }
+
+        area = 0.;
+        moment = 0.;
+        for (int k = 0; k < n; k++)
+        {
+            area += value_b[k];
+            moment += value_b[k] * value_a[k];
+        }
+
+        if (!(area > 0.))
+        {
+            return default_value;
+        }
+
+        if (method == OutputVariable.DefuzzificationMethod.COA)
+        {
+            double sum = 0.;
+            for (int k = 0; k < n; k++)
+            {
+                sum += value_b[k];
+                if (sum > 0.5 * area)
+                {
+                    return value_a[k];
+                }
+            }
+
+            return value_a[n - 1];
+        }
+
+        return moment / area;
+    }
+
+    /**
+     * Returns whether the last defuzzification found nothing activated, and
+     * so returned the default value.
+     * @return true if the accumulated area was zero.
+     */
+    boolean isEmpty()
+    {
+        return !(area > 0.);
+    }
+
+    /**
+     * Under MAX accumulation only the highest activation of each term
+     * matters, so repeated terms are reduced to one.
+     */
+    private void mergeRepeatedTerms()
+    {
+        int kept = 0;
+        for (int j = 0; j < count; j++)
+        {
+            int k = 0;
+            while (k < kept && !(term_x[k] == term_x[j] &&
+                term_first[k] == term_first[j]))
+            {
+                k++;
+            }
+
+            if (k < kept)
+            {
+                term_level[k] = Math.max(term_level[k], term_level[j]);
+            }
+            else
+            {
+                term_x[kept] = term_x[j];
+                term_y[kept] = term_y[j];
+                term_first[kept] = term_first[j];
+                term_last[kept] = term_last[j];
+                term_level[kept] = term_level[j];
+                kept++;
+            }
+        }
+        count = kept;
+    }
+
+    /**
+     * Walks the straight pieces of the accumulated output from left to
+     * right, summing their area and moment.  If target is not negative, the
+     * walk stops at the point where the area reaches target, and leaves it
+     * in found_x.
+     * @param activation_method activation method.
+     * @param accumulation_method accumulation method.
+     * @param target area to stop at, or negative to walk everything.
+     */
+    private void walk(RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method, double target)
+    {
+        area = 0.;
+        moment = 0.;
+        found_x = Double.NaN;
+
+        boolean min = activation_method == RuleBase.ActivationMethod.MIN;
+        int ncuts = collectCuts(min);
+
+        for (int c = 0; c + 1 < ncuts; c++)
+        {
+            double a = cuts[c];
+            double b = cuts[c + 1];
+            if (!(b > a))
+            {
+                continue;
+            }
+
+            //  Every activated term is linear on [a, b].
+            double middle = 0.5 * (a + b);
+            for (int j = 0; j < count; j++)
+            {
+                double[] x = term_x[j];
+                int first = term_first[j];
+                int last = term_last[j];
+
+                if (middle < x[first] || middle > x[last])
+                {
+                    value_a[j] = 0.;
+                    value_b[j] = 0.;
+                    continue;
+                }
+
+                int i = segment(x, first, last, middle);
+                double[] y = term_y[j];
+                double slope = (y[i + 1] - y[i]) / (x[i + 1] - x[i]);
+                double level = term_level[j];
+                double ya = y[i] + slope * (a - x[i]);
+                double yb = y[i] + slope * (b - x[i]);
+
+                value_a[j] = min ? Math.min(level, ya) : level * ya;
+                value_b[j] = min ? Math.min(level, yb) : level * yb;
+            }
+
+            boolean done;
+            if (accumulation_method == RuleBase.AccumulationMethod.MAX)
+            {
+                done = walkMax(a, b, target);
+            }
+            else
+            {
+                done = walkBoundedSum(a, b, target);
+            }
+
+            if (done)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Collects and sorts the points at which the accumulated output may
+     * bend:  the data points of the terms and, for MIN activation, the
+     * points where a term crosses its activation level.
+     * @param min true for MIN activation.
+     * @return number of cuts.
+     */
+    private int collectCuts(boolean min)
+    {
+        int n = 0;
+        for (int j = 0; j < count; j++)
+        {
+            double[] x = term_x[j];
+            double[] y = term_y[j];
+            double level = term_level[j];
+
+            for (int i = term_first[j]; i <= term_last[j]; i++)
+            {
+                n = addCut(n, x[i]);
+
+                if (min && i < term_last[j] && x[i + 1] > x[i] &&
+                    (y[i] - level) * (y[i + 1] - level) < 0.)
+                {
+                    n = addCut(n, x[i] + (x[i + 1] - x[i]) * (level - y[i]) /
+                        (y[i + 1] - y[i]));
+                }
+            }
+        }
+
+        Arrays.sort(cuts, 0, n);
+
+        return n;
+    }
+
+    /**
+     * Appends a cut, growing the array as needed.
+     * @param n number of cuts so far.
+     * @param x cut.
+     * @return new number of cuts.
+     */
+    private int addCut(int n, double x)
+    {
+        if (n == cuts.length)
+        {
+            cuts = Arrays.copyOf(cuts, 2 * n);
+        }
+        cuts[n] = x;
+
+        return n + 1;
+    }
+
+    /**
+     * Walks [a, b] under MAX accumulation, cutting it where activated terms
+     * cross.
+     * @param a start of the interval.
+     * @param b end of the interval.
+     * @param target area to stop at, or negative.
+     * @return true if the target was reached.
+     */
+    private boolean walkMax(double a, double b, double target)
+    {
+        int n = 0;
+        sub_cuts[n++] = a;
+        for (int j = 0; j < count; j++)
+        {
+            for (int k = j + 1; k < count; k++)
+            {
+                double da = value_a[j] - value_a[k];
+                double db = value_b[j] - value_b[k];
+                if (da * db < 0.)
+                {
+                    if (n == sub_cuts.length)
+                    {
+                        sub_cuts = Arrays.copyOf(sub_cuts, 2 * n);
+                    }
+                    sub_cuts[n++] = a + (b - a) * da / (da - db);
+                }
+            }
+        }
+        if (n == sub_cuts.length)
+        {
+            sub_cuts = Arrays.copyOf(sub_cuts, n + 1);
+        }
+        sub_cuts[n++] = b;
+
+        Arrays.sort(sub_cuts, 1, n - 1);
+
+        for (int s = 0; s + 1 < n; s++)
+        {
+            double p = sub_cuts[s];
+            double q = sub_cuts[s + 1];
+            if (!(q > p))
+            {
+                continue;
+            }
+
+            double fp = (p - a) / (b - a);
+            double fq = (q - a) / (b - a);
+            double yp = 0.;
+            double yq = 0.;
+            for (int j = 0; j < count; j++)
+            {
+                double d = value_b[j] - value_a[j];
+                yp = Math.max(yp, value_a[j] + d * fp);
+                yq = Math.max(yq, value_a[j] + d * fq);
+            }
+
+            if (piece(p, q, yp, yq, target))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Walks [a, b] under BSUM accumulation, cutting it where the sum of the
+     * activated terms crosses 1.
+     * @param a start of the interval.
+     * @param b end of the interval.
+     * @param target area to stop at, or negative.
+     * @return true if the target was reached.
+     */
+    private boolean walkBoundedSum(double a, double b, double target)
+    {
+        double sa = 0.;
+        double sb = 0.;
+        for (int j = 0; j < count; j++)
+        {
+            sa += value_a[j];
+            sb += value_b[j];
+        }
+
+        if ((sa - 1.) * (sb - 1.) < 0.)
+        {
+            double m = a + (b - a) * (1. - sa) / (sb - sa);
+            return piece(a, m, Math.min(1., sa), 1., target) ||
+                piece(m, b, 1., Math.min(1., sb), target);
+        }
+
+        return piece(a, b, Math.min(1., sa), Math.min(1., sb), target);
+    }
+
+    /**
+     * Integrates one straight piece of the accumulated output.
+     * @param p start of the piece.
+     * @param q end of the piece.
+     * @param yp value at p.
+     * @param yq value at q.
+     * @param target area to stop at, or negative.
+     * @return true if the target was reached within the piece.
+     */
+    private boolean piece(double p, double q, double yp, double yq,
+        double target)
+    {
+        double w = q - p;
+        double piece_area = 0.5 * (yp + yq) * w;
+
+        if (target >= 0. && area + piece_area >= target)
+        {
+            //  Solve yp*t + slope*t*t/2 = need for t in [0, w].
+            double need = target - area;
+            double slope = (yq - yp) / w;
+            double root = Math.sqrt(Math.max(0., yp * yp + 2. * slope * need));
+            double t = yp + root > 0. ? 2. * need / (yp + root) : 0.;
+            found_x = p + Math.min(Math.max(t, 0.), w);
+            return true;
+        }
+
+        area += piece_area;
+        moment += w * (p * (2. * yp + yq) + q * (yp + 2. * yq)) / 6.;
+
+        return false;
+    }
+
+    /**
+     * Returns the segment i of the data points with x[i] &lt;= v &lt;= x[i+1]
+     * and x[i] &lt; x[i+1].
+     * @param x x-values in increasing order.
+     * @param first index of the first point.
+     * @param last index of the last point.
+     * @param v value within [x[first], x[last]].
+     * @return segment index.
+     */
+    private static int segment(double[] x, int first, int last, double v)
+    {
+        int lo = first + 1;
+        int hi = last;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (x[mid] < v)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+
+        return Math.max(first, lo - 1);
+    }
+}
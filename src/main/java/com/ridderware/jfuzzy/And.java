@@ -18,6 +18,8 @@
  */
 package com.ridderware.jfuzzy;
 
+import java.util.ArrayList;
+
 /**
  * And represents the fuzzy logic "And" operator between two conditions.
  * Instantiate an And object, specifying the conditions to the constructor.
@@ -34,21 +36,47 @@ public class And implements ICondition
         /**
          * min(cond1, cond2)
          */
-        MIN,
+        MIN
+        {
+            public double apply(double term1, double term2)
+            {
+                return Math.min(term1, term2);
+            }
+        },
         /**
          * cond1 * cond2
          */
-        PROD,
+        PROD
+        {
+            public double apply(double term1, double term2)
+            {
+                return term1 * term2;
+            }
+        },
         /**
          * max(0, cond1+cond2-1)
          */
         BDIF
+        {
+            public double apply(double term1, double term2)
+            {
+                return Math.max(0., term1 + term2 - 1.);
+            }
+        };
 
+        /**
+         * Applies the operator to two terms.
+         * @param term1 first term.
+         * @param term2 second term.
+         * @return result of the operator.
+         */
+        public abstract double apply(double term1, double term2);
     }
     private ICondition condition1;
 
     private ICondition condition2;
 
+    //  Operator used by aggregate() when none is supplied.
     private static FuzzyAndOperator and_operator = FuzzyAndOperator.MIN;
 
     /** Creates a new instance of And */
@@ -77,13 +105,10 @@ public class And implements ICondition
      */
     public String writeFCL()
     {
-        String fcl = condition1.writeFCL();
+        StringBuilder fcl = new StringBuilder();
+        FCLWriter.appendCondition(fcl, this, new ArrayList<Object>());
 
-        fcl += " AND ";
-
-        fcl += condition2.writeFCL();
-
-        return fcl;
+        return fcl.toString();
     }
 
     /**
@@ -113,51 +138,79 @@ public class And implements ICondition
     @Override
     public int hashCode()
     {
+        //  Symmetric in the two conditions, as equals() is.  The product
+        //  keeps apart nestings of the same simple conditions.
+        int hash1 = this.condition1 != null ? this.condition1.hashCode() : 0;
+        int hash2 = this.condition2 != null ? this.condition2.hashCode() : 0;
         int hash = 7;
-        hash =
-            79 * hash +
-            (this.condition1 != null ? this.condition1.hashCode() : 0);
-        hash =
-            79 * hash +
-            (this.condition2 != null ? this.condition2.hashCode() : 0);
+        hash = 79 * hash + hash1 + hash2 + 31 * hash1 * hash2;
         return hash;
     }
 
     /**
-     * Aggregates subconditions and returns the result.
+     * Returns the first condition.
+     * @return first condition.
+     */
+    ICondition getCondition1()
+    {
+        return this.condition1;
+    }
+
+    /**
+     * Returns the second condition.
+     * @return second condition.
+     */
+    ICondition getCondition2()
+    {
+        return this.condition2;
+    }
+
+    /**
+     * Aggregates subconditions with the default operators and returns the
+     * result.
      *@return result of aggregation.
      */
+    @SuppressWarnings("deprecation")
     public double aggregate()
     {
-        double term1 = condition1.aggregate();
-        double term2 = condition2.aggregate();
+        return aggregate(And.and_operator, Or.getOrOperator());
+    }
+
+    /**
+     * Aggregates subconditions with the specified operators and returns the
+     * result.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
+     * @return result of aggregation.
+     */
+    public double aggregate(FuzzyAndOperator and_operator,
+        Or.FuzzyOrOperator or_operator)
+    {
+        double term1 = condition1.aggregate(and_operator, or_operator);
+        double term2 = condition2.aggregate(and_operator, or_operator);
 
-        switch (and_operator)
-        {
-            case MIN:
-                return Math.min(term1, term2);
-            case PROD:
-                return term1 * term2;
-            case BDIF:
-                return Math.max(0., term1 + term2 - 1.);
-            default:
-                return 0.;
-        }
+        return and_operator.apply(term1, term2);
     }
 
     /**
-     * Sets the And operator.
+     * Sets the default And operator, used by aggregate() when no operator is
+     * supplied.  Rule bases hold their own operator and do not use this.
      * @param and_operator And operator to be set.
+     * @deprecated set the operator on the rule base with
+     * RuleBase.setAndOperator().
      */
+    @Deprecated
     public static void setAndOperator(FuzzyAndOperator and_operator)
     {
         And.and_operator = and_operator;
     }
 
     /**
-     * Returns the And operator.
+     * Returns the default And operator.
      * @return And operator.
+     * @deprecated use RuleBase.getAndOperator().
      */
+    @Deprecated
     public static FuzzyAndOperator getAndOperator()
     {
         return And.and_operator;
@@ -0,0 +1,1130 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A rule base compiled into flat arrays for fast evaluation.  Create one by
+ * calling RuleBase.compile().  Input terms are numbered consecutively across
+ * all input variables, each rule condition is flattened into a postfix
+ * program over those term numbers, and each conclusion is reduced to an
+ * output index, a row of the discretized output terms, and the span of
+ * discrete points it touches.  Output variables with analytic
+ * defuzzification are not discretized; their terms are packed like the
+ * input terms, and rules concluding on them collect activation levels for
+ * exact defuzzification instead.  If the rule base was set for indexed
+ * firing, evaluate() fires only the rules selected by a RuleIndex over the
+ * input terms; batch evaluation always fires every rule across the block.
+ *
+ * Evaluation takes crisp inputs in the order of getInputIndex() and
+ * produces crisp outputs in the order of getOutputIndex(), giving the same
+ * results as fuzzifying the rule base and calling evaluateRules().
+ *
+ * The tables of a compiled rule base never change after compilation, and
+ * all scratch state of an evaluation lives in an EvalContext.  One compiled
+ * rule base can therefore be shared by any number of threads, each
+ * evaluating with its own context.
+ *
+ * @author Jeff Ridder
+ */
+public final class CompiledRuleBase
+{
+    //  Program opcodes, stored in the low bits of each instruction.  The
+    //  And/Or operators of the rule base are resolved into their own opcodes
+    //  at compile time.
+    private static final int OP_TERM = 0;
+
+    private static final int OP_NOT_TERM = 1;
+
+    private static final int OP_MIN = 2;
+
+    private static final int OP_PROD = 3;
+
+    private static final int OP_BDIF = 4;
+
+    private static final int OP_MAX = 5;
+
+    private static final int OP_ASUM = 6;
+
+    private static final int OP_BSUM = 7;
+
+    private static final int OP_BITS = 3;
+
+    private static final int OP_MASK = 7;
+
+    //  Number of samples evaluated together by evaluateBatch().
+    static final int BATCH_BLOCK = 256;
+
+    //  Input variables and their terms.
+    private final String[] input_names;
+
+    private final int[] input_term_start;
+
+    private final int[] mf_start;
+
+    private final double[] mf_x;
+
+    private final double[] mf_y;
+
+    private final double[] mf_step;
+
+    //  Rule conditions as postfix programs.
+    private final int[] program;
+
+    private final int[] rule_program_start;
+
+    private final int max_stack;
+
+    //  Rule conclusions.
+    private final int[] rule_output;
+
+    private final int[] rule_term_row;
+
+    private final int[] rule_start;
+
+    private final int[] rule_end;
+
+    private final double[] rule_weight;
+
+    //  Output variables and their discretization.
+    private final String[] output_names;
+
+    private final int[] output_discrete_start;
+
+    //  Crisp value of the first discrete point of each output, and their
+    //  spacing.
+    private final double[] output_min_x;
+
+    private final double[] output_delta_x;
+
+    private final double[] term_y;
+
+    private final double[] default_value;
+
+    private final OutputVariable.DefuzzificationMethod[] defuzzification_method;
+
+    //  Analytic outputs and the packed breakpoints of all output terms.
+    private final boolean[] analytic;
+
+    private final boolean has_analytic;
+
+    private final int[] output_mf_start;
+
+    private final double[] output_mf_x;
+
+    private final double[] output_mf_y;
+
+    private final int[] rule_output_term;
+
+    //  Inverted index for indexed firing, or null to fire every rule.
+    private final RuleIndex rule_index;
+
+    //  Operators and methods.
+    private final int and_opcode;
+
+    private final int or_opcode;
+
+    private final RuleBase.ActivationMethod activation_method;
+
+    private final RuleBase.AccumulationMethod accumulation_method;
+
+    private final AccumulationKernel kernel;
+
+    private final int ndiscretes;
+
+    /**
+     * Creates a new instance of CompiledRuleBase.
+     * @param rule_base rule base to compile.
+     */
+    CompiledRuleBase(RuleBase rule_base)
+    {
+        Variable[] ivars = rule_base.getInputVariables();
+        OutputVariable[] ovars = rule_base.getOutputVariables();
+        Rule[] rules = rule_base.getRules();
+
+        //  Number the input terms and pack their breakpoints.
+        this.input_names = new String[ivars.length];
+        this.input_term_start = new int[ivars.length + 1];
+
+        int nterms = 0;
+        int npoints = 0;
+        for (int i = 0; i < ivars.length; i++)
+        {
+            input_names[i] = ivars[i].getName();
+            input_term_start[i] = nterms;
+            for (MembershipFunction term : ivars[i].getTerms())
+            {
+                npoints += term.getNumberOfDataPoints();
+            }
+            nterms += ivars[i].getTerms().length;
+        }
+        input_term_start[ivars.length] = nterms;
+
+        this.mf_start = new int[nterms + 1];
+        this.mf_x = new double[npoints];
+        this.mf_y = new double[npoints];
+
+        int t = 0;
+        int p = 0;
+        for (Variable ivar : ivars)
+        {
+            for (MembershipFunction term : ivar.getTerms())
+            {
+                mf_start[t++] = p;
+                for (int j = 0; j < term.getNumberOfDataPoints(); j++)
+                {
+                    DataPoint dp = term.getDataPoint(j);
+                    mf_x[p] = dp.getX();
+                    mf_y[p] = dp.getY();
+                    p++;
+                }
+            }
+        }
+        mf_start[nterms] = p;
+
+        this.mf_step = new double[nterms];
+        for (int i = 0; i < nterms; i++)
+        {
+            mf_step[i] = MembershipFunction.uniformStep(mf_x, mf_start[i],
+                mf_start[i + 1] - 1);
+        }
+
+        //  Copy the output discretization.
+        this.output_names = new String[ovars.length];
+        this.output_discrete_start = new int[ovars.length + 1];
+        this.default_value = new double[ovars.length];
+        this.defuzzification_method =
+            new OutputVariable.DefuzzificationMethod[ovars.length];
+        this.analytic = new boolean[ovars.length];
+
+        int ndiscretes = 0;
+        int nrows = 0;
+        int noutput_terms = 0;
+        int noutput_points = 0;
+        boolean any_analytic = false;
+        for (int o = 0; o < ovars.length; o++)
+        {
+            output_names[o] = ovars[o].getName();
+            output_discrete_start[o] = ndiscretes;
+            default_value[o] = ovars[o].getDefaultValue();
+            defuzzification_method[o] = ovars[o].getDefuzzificationMethod();
+            analytic[o] = ovars[o].isAnalyticDefuzzification();
+            any_analytic |= analytic[o];
+
+            int n = analytic[o] ? 0 : ovars[o].getNumDiscretes();
+            ndiscretes += n;
+            nrows += ovars[o].getTerms().length * n;
+
+            for (MembershipFunction term : ovars[o].getTerms())
+            {
+                noutput_points += term.getNumberOfDataPoints();
+            }
+            noutput_terms += ovars[o].getTerms().length;
+        }
+        output_discrete_start[ovars.length] = ndiscretes;
+        this.has_analytic = any_analytic;
+
+        //  Pack the breakpoints of the output terms, by output then term.
+        this.output_mf_start = new int[noutput_terms + 1];
+        this.output_mf_x = new double[noutput_points];
+        this.output_mf_y = new double[noutput_points];
+
+        int[] output_term_start = new int[ovars.length];
+        t = 0;
+        p = 0;
+        for (int o = 0; o < ovars.length; o++)
+        {
+            output_term_start[o] = t;
+            for (MembershipFunction term : ovars[o].getTerms())
+            {
+                output_mf_start[t++] = p;
+                for (int j = 0; j < term.getNumberOfDataPoints(); j++)
+                {
+                    DataPoint dp = term.getDataPoint(j);
+                    output_mf_x[p] = dp.getX();
+                    output_mf_y[p] = dp.getY();
+                    p++;
+                }
+            }
+        }
+        output_mf_start[noutput_terms] = p;
+
+        this.output_min_x = new double[ovars.length];
+        this.output_delta_x = new double[ovars.length];
+        this.term_y = new double[nrows];
+
+        //  Row offsets of each output term, by output then term.
+        int[][] term_row = new int[ovars.length][];
+        int row = 0;
+        for (int o = 0; o < ovars.length; o++)
+        {
+            OutputVariable ovar = ovars[o];
+            int n = output_discrete_start[o + 1] - output_discrete_start[o];
+
+            output_min_x[o] = ovar.getDiscreteX(0);
+            output_delta_x[o] = ovar.getDiscreteStep();
+
+            MembershipFunction[] terms = ovar.getTerms();
+            term_row[o] = new int[terms.length];
+            for (int j = 0; j < terms.length; j++)
+            {
+                term_row[o][j] = row;
+                for (int i = 0; i < n; i++)
+                {
+                    term_y[row + i] = terms[j].getDiscreteY(i);
+                }
+                row += n;
+            }
+        }
+
+        //  Resolve the operators.
+        switch (rule_base.getAndOperator())
+        {
+            case PROD:
+                this.and_opcode = OP_PROD;
+                break;
+            case BDIF:
+                this.and_opcode = OP_BDIF;
+                break;
+            default:
+                this.and_opcode = OP_MIN;
+        }
+
+        switch (rule_base.getOrOperator())
+        {
+            case ASUM:
+                this.or_opcode = OP_ASUM;
+                break;
+            case BSUM:
+                this.or_opcode = OP_BSUM;
+                break;
+            default:
+                this.or_opcode = OP_MAX;
+        }
+
+        //  Flatten the rules.
+        int nrules = rules.length;
+        this.rule_program_start = new int[nrules + 1];
+        this.rule_output = new int[nrules];
+        this.rule_term_row = new int[nrules];
+        this.rule_start = new int[nrules];
+        this.rule_end = new int[nrules];
+        this.rule_weight = new double[nrules];
+        this.rule_output_term = new int[nrules];
+
+        ArrayList<Integer> code = new ArrayList<Integer>();
+        int deepest = 1;
+        for (int r = 0; r < nrules; r++)
+        {
+            rule_program_start[r] = code.size();
+            deepest = Math.max(deepest,
+                emit(rules[r].getCondition(), ivars, code));
+
+            Conclusion conc = rules[r].getConclusion();
+            int o = indexOf(ovars, conc.getOutputVariable());
+            if (o < 0)
+            {
+                throw new IllegalStateException("Rule concludes on " +
+                    "an output variable not in the rule base: " +
+                    conc.getOutputVariable().getName());
+            }
+
+            rule_output[r] = o;
+            rule_term_row[r] = term_row[o][conc.getTermIndex()];
+            rule_output_term[r] = output_term_start[o] + conc.getTermIndex();
+            rule_weight[r] = conc.getWeight();
+
+            if (analytic[o])
+            {
+                rule_start[r] = 0;
+                rule_end[r] = -1;
+            }
+            else
+            {
+                int n = ovars[o].getNumDiscretes();
+                rule_start[r] = Math.max(0, conc.getStartX());
+                rule_end[r] = Math.min(n - 1, conc.getEndX());
+            }
+        }
+        rule_program_start[nrules] = code.size();
+
+        this.program = new int[code.size()];
+        for (int i = 0; i < program.length; i++)
+        {
+            program[i] = code.get(i);
+        }
+        this.max_stack = deepest;
+
+        this.rule_index = rule_base.isIndexedFiring() ?
+            new RuleIndex(rules, ivars, input_term_start) : null;
+
+        this.activation_method = rule_base.getActivationMethod();
+        this.accumulation_method = rule_base.getAccumulationMethod();
+        this.kernel = AccumulationKernel.get(activation_method,
+            accumulation_method);
+
+        this.ndiscretes = ndiscretes;
+    }
+
+    /**
+     * Appends the postfix program for the condition and returns the stack
+     * depth it needs.
+     * @param condition condition to flatten.
+     * @param ivars input variables of the rule base.
+     * @param code program being built.
+     * @return stack depth needed by the condition.
+     */
+    private int emit(ICondition condition, Variable[] ivars,
+        ArrayList<Integer> code)
+    {
+        if (condition instanceof SubCondition)
+        {
+            SubCondition sub = (SubCondition) condition;
+            int v = indexOf(ivars, sub.getVariable());
+            if (v < 0)
+            {
+                throw new IllegalStateException("Rule condition refers to " +
+                    "an input variable not in the rule base: " +
+                    sub.getVariable().getName());
+            }
+
+            int term = input_term_start[v] + sub.getTermIndex();
+            code.add((term << OP_BITS) | (sub.isNot() ? OP_NOT_TERM : OP_TERM));
+            return 1;
+        }
+        else if (condition instanceof And)
+        {
+            And and = (And) condition;
+            int d1 = emit(and.getCondition1(), ivars, code);
+            int d2 = emit(and.getCondition2(), ivars, code);
+            code.add(and_opcode);
+            return Math.max(d1, d2 + 1);
+        }
+        else if (condition instanceof Or)
+        {
+            Or or = (Or) condition;
+            int d1 = emit(or.getCondition1(), ivars, code);
+            int d2 = emit(or.getCondition2(), ivars, code);
+            code.add(or_opcode);
+            return Math.max(d1, d2 + 1);
+        }
+
+        throw new IllegalStateException("Cannot compile condition of type " +
+            condition.getClass().getName());
+    }
+
+    /**
+     * Returns the index of the object in the array by identity, or -1.
+     * @param array array to search.
+     * @param o object to find.
+     * @return index or -1.
+     */
+    private static int indexOf(Object[] array, Object o)
+    {
+        for (int i = 0; i < array.length; i++)
+        {
+            if (array[i] == o)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the number of input variables.
+     * @return number of inputs.
+     */
+    public int getNumberOfInputs()
+    {
+        return this.input_names.length;
+    }
+
+    /**
+     * Returns the number of output variables.
+     * @return number of outputs.
+     */
+    public int getNumberOfOutputs()
+    {
+        return this.output_names.length;
+    }
+
+    /**
+     * Returns the number of rules.
+     * @return number of rules.
+     */
+    public int getNumberOfRules()
+    {
+        return this.rule_output.length;
+    }
+
+    /**
+     * Returns the position of the named input variable in the inputs array.
+     * @param name name of the input variable.
+     * @return index of the input, or -1 if there is no such input.
+     */
+    public int getInputIndex(String name)
+    {
+        for (int i = 0; i < input_names.length; i++)
+        {
+            if (input_names[i].equals(name))
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the position of the named output variable in the outputs array.
+     * @param name name of the output variable.
+     * @return index of the output, or -1 if there is no such output.
+     */
+    public int getOutputIndex(String name)
+    {
+        for (int i = 0; i < output_names.length; i++)
+        {
+            if (output_names[i].equals(name))
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Creates a new evaluation context for this rule base.  A context may be
+     * reused for any number of evaluations, but only by one thread at a time.
+     * @return evaluation context.
+     */
+    public EvalContext createContext()
+    {
+        return new EvalContext(this, input_term_start[input_names.length],
+            max_stack, ndiscretes, analytic,
+            rule_index != null ? rule_output.length : 0);
+    }
+
+    /**
+     * Evaluates the rule base for the crisp inputs.  This is the equivalent
+     * of fuzzifying every input variable, calling evaluateRules(), and
+     * reading every crisp output.  The rule base itself is not modified, so
+     * concurrent calls are safe provided each uses its own context.
+     * @param inputs crisp inputs, indexed as by getInputIndex().
+     * @param outputs receives the crisp outputs, indexed as by getOutputIndex().
+     * @param ctx evaluation context created by this rule base.
+     */
+    public void evaluate(double[] inputs, double[] outputs, EvalContext ctx)
+    {
+        if (ctx.owner != this)
+        {
+            throw new IllegalArgumentException("Evaluation context was " +
+                "created by a different compiled rule base");
+        }
+
+        double[] dom = ctx.dom;
+        double[] accumulator = ctx.accumulator;
+
+        //  Fuzzify
+        for (int v = 0; v < input_names.length; v++)
+        {
+            double x = inputs[v];
+            for (int t = input_term_start[v]; t < input_term_start[v + 1]; t++)
+            {
+                dom[t] = membership(t, x);
+            }
+        }
+
+        //  Infer
+        for (int i = 0; i < accumulator.length; i++)
+        {
+            accumulator[i] = 0.;
+        }
+        for (int o = 0; o < output_names.length; o++)
+        {
+            if (analytic[o])
+            {
+                ctx.analytic[o].reset();
+            }
+        }
+
+        if (rule_index == null)
+        {
+            for (int r = 0; r < rule_output.length; r++)
+            {
+                fire(r, ctx);
+            }
+        }
+        else
+        {
+            int n = rule_index.select(dom, ctx.candidates, ctx.seen);
+            for (int i = 0; i < n; i++)
+            {
+                fire(ctx.candidates[i], ctx);
+            }
+        }
+
+        //  Defuzzify
+        for (int o = 0; o < output_names.length; o++)
+        {
+            if (analytic[o])
+            {
+                outputs[o] = ctx.analytic[o].defuzzify(activation_method,
+                    accumulation_method, defuzzification_method[o],
+                    default_value[o]);
+            }
+            else
+            {
+                outputs[o] = defuzzify(o, accumulator, 0);
+            }
+        }
+    }
+
+    /**
+     * Aggregates the condition of the rule over the fuzzified inputs of the
+     * context, and activates and accumulates its conclusion.
+     * @param r rule index.
+     * @param ctx evaluation context.
+     */
+    private void fire(int r, EvalContext ctx)
+    {
+        double level = aggregate(r, ctx.dom, ctx.stack) * rule_weight[r];
+        int o = rule_output[r];
+        if (!analytic[o])
+        {
+            accumulate(r, level, ctx.accumulator, 0);
+        }
+        else if (level > 0.)
+        {
+            int term = rule_output_term[r];
+            ctx.analytic[o].add(output_mf_x, output_mf_y,
+                output_mf_start[term], output_mf_start[term + 1] - 1, level);
+        }
+    }
+
+    /**
+     * Evaluates the rule base for many samples at once.  Inputs and outputs
+     * are given column by column:  input_columns[i][s] is the crisp value of
+     * input i (as numbered by getInputIndex()) for sample s, and
+     * output_columns[o][s] receives the crisp value of output o.  Samples
+     * are processed in blocks, fuzzifying each input term and running each
+     * condition program over the whole block before accumulating, which
+     * keeps the inner loops over contiguous arrays.  Results are identical
+     * to calling evaluate() once per sample.  If any output uses analytic
+     * defuzzification the samples are simply evaluated one by one.
+     * @param input_columns crisp inputs, one column per input variable.
+     * @param output_columns receives the crisp outputs, one column per
+     * output variable.
+     * @param ctx evaluation context created by this rule base.
+     */
+    public void evaluateBatch(double[][] input_columns,
+        double[][] output_columns, EvalContext ctx)
+    {
+        int n = checkColumns(input_columns, output_columns);
+        evaluateBatch(input_columns, output_columns, 0, n, ctx);
+    }
+
+    /**
+     * Evaluates the rule base for many samples at once, in parallel.  The
+     * samples are split into chunks of at most chunk_size which are
+     * evaluated as tasks on the pool, each with its own evaluation context.
+     * Columns are as for the sequential evaluateBatch(), and the results are
+     * identical to it.  The call returns when all samples are done.
+     * @param input_columns crisp inputs, one column per input variable.
+     * @param output_columns receives the crisp outputs, one column per
+     * output variable.
+     * @param pool pool to run the evaluation on.
+     * @param chunk_size largest number of samples evaluated by one task.
+     */
+    public void evaluateBatch(double[][] input_columns,
+        double[][] output_columns, ForkJoinPool pool, int chunk_size)
+    {
+        if (chunk_size < 1)
+        {
+            throw new IllegalArgumentException("Chunk size must be positive: " +
+                chunk_size);
+        }
+
+        int n = checkColumns(input_columns, output_columns);
+        pool.invoke(new BatchTask(input_columns, output_columns, 0, n,
+            chunk_size));
+    }
+
+    /**
+     * Task evaluating a range of samples, splitting it in halves until it
+     * is no larger than the chunk size.
+     */
+    private final class BatchTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] input_columns;
+
+        private final double[][] output_columns;
+
+        private final int from;
+
+        private final int to;
+
+        private final int chunk_size;
+
+        /**
+         * Creates a new instance of BatchTask.
+         * @param input_columns crisp inputs.
+         * @param output_columns receives the crisp outputs.
+         * @param from first sample.
+         * @param to one past the last sample.
+         * @param chunk_size largest range evaluated without splitting.
+         */
+        BatchTask(double[][] input_columns, double[][] output_columns,
+            int from, int to, int chunk_size)
+        {
+            this.input_columns = input_columns;
+            this.output_columns = output_columns;
+            this.from = from;
+            this.to = to;
+            this.chunk_size = chunk_size;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= chunk_size)
+            {
+                evaluateBatch(input_columns, output_columns, from, to,
+                    createContext());
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(input_columns, output_columns, from,
+                middle, chunk_size),
+                new BatchTask(input_columns, output_columns, middle, to,
+                chunk_size));
+        }
+    }
+
+    /**
+     * Evaluates the rule base for a range of the samples in the columns.
+     * @param input_columns crisp inputs, one column per input variable.
+     * @param output_columns receives the crisp outputs.
+     * @param from first sample.
+     * @param to one past the last sample.
+     * @param ctx evaluation context created by this rule base.
+     */
+    void evaluateBatch(double[][] input_columns, double[][] output_columns,
+        int from, int to, EvalContext ctx)
+    {
+        if (ctx.owner != this)
+        {
+            throw new IllegalArgumentException("Evaluation context was " +
+                "created by a different compiled rule base");
+        }
+
+        if (has_analytic)
+        {
+            evaluateRows(input_columns, output_columns, from, to, ctx);
+            return;
+        }
+
+        if (ctx.batch_accumulator == null)
+        {
+            ctx.batch_dom = new double[ctx.dom.length * BATCH_BLOCK];
+            ctx.batch_stack = new double[max_stack * BATCH_BLOCK];
+            ctx.batch_accumulator = new double[ndiscretes * BATCH_BLOCK];
+        }
+
+        for (int first = from; first < to; first += BATCH_BLOCK)
+        {
+            evaluateBlock(input_columns, output_columns, first,
+                Math.min(BATCH_BLOCK, to - first), ctx);
+        }
+    }
+
+    /**
+     * Evaluates a range of the samples in the columns one by one.
+     * @param input_columns crisp inputs, one column per input variable.
+     * @param output_columns receives the crisp outputs.
+     * @param from first sample.
+     * @param to one past the last sample.
+     * @param ctx evaluation context created by this rule base.
+     */
+    private void evaluateRows(double[][] input_columns,
+        double[][] output_columns, int from, int to, EvalContext ctx)
+    {
+        if (ctx.row_inputs == null)
+        {
+            ctx.row_inputs = new double[input_names.length];
+            ctx.row_outputs = new double[output_names.length];
+        }
+
+        for (int s = from; s < to; s++)
+        {
+            for (int v = 0; v < input_names.length; v++)
+            {
+                ctx.row_inputs[v] = input_columns[v][s];
+            }
+
+            evaluate(ctx.row_inputs, ctx.row_outputs, ctx);
+
+            for (int o = 0; o < output_names.length; o++)
+            {
+                output_columns[o][s] = ctx.row_outputs[o];
+            }
+        }
+    }
+
+    /**
+     * Checks the shape of the columns and returns the number of samples.
+     * @param input_columns crisp inputs, one column per input variable.
+     * @param output_columns crisp outputs, one column per output variable.
+     * @return number of samples.
+     */
+    int checkColumns(double[][] input_columns, double[][] output_columns)
+    {
+        if (input_columns.length != input_names.length ||
+            output_columns.length != output_names.length)
+        {
+            throw new IllegalArgumentException("Expected " +
+                input_names.length + " input and " + output_names.length +
+                " output columns");
+        }
+
+        int n = -1;
+        for (double[] column : input_columns)
+        {
+            n = n < 0 ? column.length : Math.min(n, column.length);
+        }
+        for (double[] column : output_columns)
+        {
+            n = n < 0 ? column.length : Math.min(n, column.length);
+        }
+
+        return Math.max(n, 0);
+    }
+
+    /**
+     * Evaluates one block of samples.
+     * @param input_columns crisp inputs.
+     * @param output_columns receives the crisp outputs.
+     * @param first first sample of the block.
+     * @param count number of samples in the block.
+     * @param ctx evaluation context.
+     */
+    private void evaluateBlock(double[][] input_columns,
+        double[][] output_columns, int first, int count, EvalContext ctx)
+    {
+        double[] dom = ctx.batch_dom;
+        double[] stack = ctx.batch_stack;
+        double[] accumulator = ctx.batch_accumulator;
+
+        //  Fuzzify, one term row at a time.
+        for (int v = 0; v < input_names.length; v++)
+        {
+            double[] column = input_columns[v];
+            for (int t = input_term_start[v]; t < input_term_start[v + 1]; t++)
+            {
+                int row = t * BATCH_BLOCK;
+                for (int s = 0; s < count; s++)
+                {
+                    dom[row + s] = membership(t, column[first + s]);
+                }
+            }
+        }
+
+        //  Infer, one rule at a time across the block.
+        Arrays.fill(accumulator, 0, count * ndiscretes, 0.);
+
+        for (int r = 0; r < rule_output.length; r++)
+        {
+            aggregateBlock(r, count, dom, stack);
+
+            double weight = rule_weight[r];
+            for (int s = 0; s < count; s++)
+            {
+                //  A rule that does not fire leaves the discretes unchanged.
+                double level = stack[s] * weight;
+                if (level != 0.)
+                {
+                    accumulate(r, level, accumulator, s * ndiscretes);
+                }
+            }
+        }
+
+        //  Defuzzify
+        for (int o = 0; o < output_names.length; o++)
+        {
+            double[] column = output_columns[o];
+            for (int s = 0; s < count; s++)
+            {
+                column[first + s] = defuzzify(o, accumulator, s * ndiscretes);
+            }
+        }
+    }
+
+    /**
+     * Runs the condition program of the rule over a block of samples,
+     * leaving the results in the first row of the stack.
+     * @param r rule index.
+     * @param count number of samples in the block.
+     * @param dom term rows of the block.
+     * @param stack stack rows of the block.
+     */
+    private void aggregateBlock(int r, int count, double[] dom,
+        double[] stack)
+    {
+        int sp = 0;
+        for (int pc = rule_program_start[r]; pc < rule_program_start[r + 1]; pc++)
+        {
+            int ins = program[pc];
+            int op = ins & OP_MASK;
+
+            if (op == OP_TERM || op == OP_NOT_TERM)
+            {
+                int src = (ins >>> OP_BITS) * BATCH_BLOCK;
+                int dst = sp * BATCH_BLOCK;
+                if (op == OP_TERM)
+                {
+                    System.arraycopy(dom, src, stack, dst, count);
+                }
+                else
+                {
+                    for (int s = 0; s < count; s++)
+                    {
+                        stack[dst + s] = 1. - dom[src + s];
+                    }
+                }
+                sp++;
+                continue;
+            }
+
+            sp--;
+            int a = (sp - 1) * BATCH_BLOCK;
+            int b = sp * BATCH_BLOCK;
+            switch (op)
+            {
+                case OP_MIN:
+                {
+                    for (int s = 0; s < count; s++)
+                    {
+                        stack[a + s] = Math.min(stack[a + s], stack[b + s]);
+                    }
+                    break;
+                }
+                case OP_PROD:
+                {
+                    for (int s = 0; s < count; s++)
+                    {
+                        stack[a + s] = stack[a + s] * stack[b + s];
+                    }
+                    break;
+                }
+                case OP_BDIF:
+                {
+                    for (int s = 0; s < count; s++)
+                    {
+                        stack[a + s] =
+                            Math.max(0., stack[a + s] + stack[b + s] - 1.);
+                    }
+                    break;
+                }
+                case OP_MAX:
+                {
+                    for (int s = 0; s < count; s++)
+                    {
+                        stack[a + s] = Math.max(stack[a + s], stack[b + s]);
+                    }
+                    break;
+                }
+                case OP_ASUM:
+                {
+                    for (int s = 0; s < count; s++)
+                    {
+                        double term1 = stack[a + s];
+                        double term2 = stack[b + s];
+                        stack[a + s] = term1 + term2 - term1 * term2;
+                    }
+                    break;
+                }
+                default:
+                {
+                    for (int s = 0; s < count; s++)
+                    {
+                        stack[a + s] = Math.min(1., stack[a + s] + stack[b + s]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the degree of membership of x in the input term, interpolating
+     * as MembershipFunction.calculateDOM() does.
+     * @param t input term number.
+     * @param x crisp input.
+     * @return degree of membership.
+     */
+    private double membership(int t, double x)
+    {
+        return MembershipFunction.interpolate(mf_x, mf_y, mf_start[t],
+            mf_start[t + 1] - 1, mf_step[t], x);
+    }
+
+    /**
+     * Runs the condition program of the rule over the doms.
+     * @param r rule index.
+     * @param dom degree of membership of every input term.
+     * @param stack condition stack.
+     * @return aggregated condition.
+     */
+    private double aggregate(int r, double[] dom, double[] stack)
+    {
+        int sp = 0;
+        for (int pc = rule_program_start[r]; pc < rule_program_start[r + 1]; pc++)
+        {
+            int ins = program[pc];
+            switch (ins & OP_MASK)
+            {
+                case OP_TERM:
+                {
+                    stack[sp++] = dom[ins >>> OP_BITS];
+                    break;
+                }
+                case OP_NOT_TERM:
+                {
+                    stack[sp++] = 1. - dom[ins >>> OP_BITS];
+                    break;
+                }
+                case OP_MIN:
+                {
+                    double term2 = stack[--sp];
+                    stack[sp - 1] = Math.min(stack[sp - 1], term2);
+                    break;
+                }
+                case OP_PROD:
+                {
+                    double term2 = stack[--sp];
+                    stack[sp - 1] = stack[sp - 1] * term2;
+                    break;
+                }
+                case OP_BDIF:
+                {
+                    double term2 = stack[--sp];
+                    stack[sp - 1] = Math.max(0., stack[sp - 1] + term2 - 1.);
+                    break;
+                }
+                case OP_MAX:
+                {
+                    double term2 = stack[--sp];
+                    stack[sp - 1] = Math.max(stack[sp - 1], term2);
+                    break;
+                }
+                case OP_ASUM:
+                {
+                    double term2 = stack[--sp];
+                    double term1 = stack[sp - 1];
+                    stack[sp - 1] = term1 + term2 - term1 * term2;
+                    break;
+                }
+                default:
+                {
+                    double term2 = stack[--sp];
+                    stack[sp - 1] = Math.min(1., stack[sp - 1] + term2);
+                }
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * Activates the conclusion of the rule and accumulates it into the
+     * discretes of its output variable.
+     * @param r rule index.
+     * @param level activation level (aggregation times weight).
+     * @param accumulator output discretes.
+     * @param offset offset of the sample's discretes in accumulator.
+     */
+    private void accumulate(int r, double level, double[] accumulator,
+        int offset)
+    {
+        int start = rule_start[r];
+        kernel.accumulate(level, term_y, rule_term_row[r] + start, accumulator,
+            offset + output_discrete_start[rule_output[r]] + start,
+            rule_end[r] - start + 1);
+    }
+
+    /**
+     * Defuzzifies the accumulated discretes of the output variable.
+     * @param o output index.
+     * @param accumulator output discretes.
+     * @param offset offset of the sample's discretes in accumulator.
+     * @return crisp value.
+     */
+    private double defuzzify(int o, double[] accumulator, int offset)
+    {
+        int start = offset + output_discrete_start[o];
+        int count = output_discrete_start[o + 1] - output_discrete_start[o];
+
+        switch (defuzzification_method[o])
+        {
+            case COG:
+            case COGS:
+            {
+                double sumDOMS = kernel.sum(accumulator, start, count);
+
+                if (sumDOMS > 0.)
+                {
+                    return kernel.moment(accumulator, start, count,
+                        output_min_x[o], output_delta_x[o]) / sumDOMS;
+                }
+
+                return default_value[o];
+            }
+            case COA:
+            {
+                double sumDOMS = kernel.sum(accumulator, start, count);
+
+                if (sumDOMS <= 0.)
+                {
+                    return default_value[o];
+                }
+
+                //	Now go back and find the halfway point.
+                int i = kernel.halfway(accumulator, start, count, 0.5 * sumDOMS);
+                if (i >= 0)
+                {
+                    return output_min_x[o] + i * output_delta_x[o];
+                }
+
+                return default_value[o];
+            }
+            default:
+            {
+                return default_value[o];
+            }
+        }
+    }
+}
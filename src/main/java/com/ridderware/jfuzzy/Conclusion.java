@@ -34,6 +34,9 @@ public class Conclusion
     //  Weight of activation.
     private double weight;
 
+    //  Modification clock reading at the last change of the weight.
+    private long version;
+
     //  Computed activation level.
     private double activation_level;
 
@@ -69,16 +72,10 @@ public class Conclusion
      */
     public String writeFCL()
     {
-        MembershipFunction term = output_variable.getTerm(term_index);
-
-        String fcl = output_variable.getName() + " IS " + term.getName();
-
-        if (this.weight < 1.0)
-        {
-            fcl += " WITH " + weight;
-        }
+        StringBuilder fcl = new StringBuilder();
+        FCLWriter.appendConclusion(fcl, this);
 
-        return fcl;
+        return fcl.toString();
     }
 
     /**
@@ -109,22 +106,60 @@ public class Conclusion
     public
     int hashCode()
     {
+        //  Only fields that cannot change:  the weight may be set and the
+        //  activation level changes whenever the rule fires.
         int hash = 3;
         hash =
             61 * hash +
             (this.output_variable != null ? this.output_variable.hashCode() : 0);
         hash = 61 * hash + this.term_index;
-        hash =
-            61 * hash +
-            (int) (Double.doubleToLongBits(this.weight) ^
-            (Double.doubleToLongBits(this.weight) >>> 32));
-        hash =
-            61 * hash +
-            (int) (Double.doubleToLongBits(this.activation_level) ^
-            (Double.doubleToLongBits(this.activation_level) >>> 32));
         return hash;
     }
 
+    /**
+     * Returns the output variable of this conclusion.
+     * @return output variable.
+     */
+    OutputVariable getOutputVariable()
+    {
+        return this.output_variable;
+    }
+
+    /**
+     * Returns the index of the output term of this conclusion.
+     * @return term index.
+     */
+    int getTermIndex()
+    {
+        return this.term_index;
+    }
+
+    /**
+     * Returns the activation weight.
+     * @return activation weight.
+     */
+    double getWeight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * Activates the output term to the activation level and accumulates it
+     * into the discretes of the output variable.
+     * @param kernel accumulation kernel for the activation and accumulation
+     * methods.
+     */
+    void accumulate(AccumulationKernel kernel)
+    {
+        MembershipFunction term = output_variable.getTerm(term_index);
+        int xstart = getStartX();
+        int xend = getEndX();
+
+        kernel.accumulate(activation_level, term.getDiscreteValues(),
+            term.getDiscreteOffset() + xstart,
+            output_variable.getDiscreteValues(), xstart, xend - xstart + 1);
+    }
+
     /**
      * Returns the start of the crisp domain concerning this conclusion.
      *
@@ -197,13 +232,36 @@ public class Conclusion
         activation_level = level * weight;
     }
 
+    /**
+     * Returns the activation level, weight included.
+     * @return activation level.
+     */
+    double getActivationLevel()
+    {
+        return this.activation_level;
+    }
+
     /**
      * Sets the activation weight.
      * @param weight activation weight.
      */
     public void setWeight(double weight)
     {
-        this.weight = weight;
+        if (weight != this.weight)
+        {
+            this.weight = weight;
+            this.version = ModificationClock.tick();
+        }
+    }
+
+    /**
+     * Returns the modification clock reading at the last change of the
+     * weight.
+     * @return version.
+     */
+    long getVersion()
+    {
+        return this.version;
     }
 
     /**
@@ -0,0 +1,585 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The crisp outputs of a rule base precomputed over a grid of its input
+ * universes, for controllers with few inputs.  Evaluation is multilinear
+ * interpolation between the 2^n grid points around the inputs, which is
+ * exact at the grid points and approximate between them; getMaxError()
+ * measures the approximation against the rule base.
+ *
+ * The universe of each input runs from the lowest to the highest data
+ * point of its terms, and inputs outside it take the values at its ends,
+ * as fuzzification does.  A surface is a snapshot of the rule base when it
+ * was built, and may be saved and loaded without the rule base.
+ *
+ * The table is never changed after it is built, but evaluate() uses
+ * a scratch array of the surface, so threads evaluating at once should each
+ * use their own copy().
+ *
+ * @author Jeff Ridder
+ */
+public final class ControlSurface
+{
+    //  Identifies saved surfaces, and the version of the format.
+    private static final int MAGIC = 0x4a464353;
+
+    private static final int VERSION = 1;
+
+    private final String[] input_names;
+
+    private final String[] output_names;
+
+    //  Grid of each input:  resolution[d] points from lower[d] to upper[d].
+    private final double[] lower;
+
+    private final double[] upper;
+
+    private final double[] step;
+
+    private final double[] inverse_step;
+
+    private final int[] resolution;
+
+    //  Grid points between consecutive values of each input.
+    private final int[] stride;
+
+    //  Crisp outputs at each grid point, output innermost.
+    private final double[] table;
+
+    //  Offset of each corner of a grid cell from its lowest corner, in grid
+    //  points.  Corner c takes the upper point of input d if bit d is set.
+    private final int[] corner;
+
+    //  Scratch:  weight of each corner.
+    private final double[] weight;
+
+    /**
+     * Creates a new instance of ControlSurface.
+     * @param input_names names of the inputs.
+     * @param output_names names of the outputs.
+     * @param lower lower end of each input universe.
+     * @param upper upper end of each input universe.
+     * @param resolution number of grid points of each input.
+     * @param table crisp outputs at each grid point.
+     */
+    private ControlSurface(String[] input_names, String[] output_names,
+        double[] lower, double[] upper, int[] resolution, double[] table)
+    {
+        this.input_names = input_names;
+        this.output_names = output_names;
+        this.lower = lower;
+        this.upper = upper;
+        this.resolution = resolution;
+        this.table = table;
+
+        int n = resolution.length;
+        this.step = new double[n];
+        this.inverse_step = new double[n];
+        this.stride = new int[n];
+        int points = 1;
+        for (int d = n - 1; d >= 0; d--)
+        {
+            step[d] = (upper[d] - lower[d]) / (resolution[d] - 1);
+            if (!(step[d] > 0.))
+            {
+                //  Degenerate universe:  every input maps to the first point.
+                step[d] = 1.;
+            }
+            inverse_step[d] = 1. / step[d];
+            stride[d] = points;
+            points *= resolution[d];
+        }
+
+        this.corner = new int[1 << n];
+        for (int c = 0; c < corner.length; c++)
+        {
+            for (int d = 0; d < n; d++)
+            {
+                if ((c & (1 << d)) != 0)
+                {
+                    corner[c] += stride[d];
+                }
+            }
+        }
+        this.weight = new double[1 << n];
+    }
+
+    /**
+     * Returns a surface sharing the table of this one, with its own scratch
+     * array, for use by another thread.
+     * @return copy.
+     */
+    public ControlSurface copy()
+    {
+        return new ControlSurface(input_names, output_names, lower, upper,
+            resolution, table);
+    }
+
+    /**
+     * Builds the surface of the rule base with the same number of grid
+     * points for every input.
+     * @param rule_base rule base.
+     * @param resolution number of grid points of each input (at least 2).
+     * @return control surface.
+     */
+    public static ControlSurface build(RuleBase rule_base, int resolution)
+    {
+        int[] resolutions = new int[rule_base.getInputVariables().length];
+        Arrays.fill(resolutions, resolution);
+
+        return build(rule_base, resolutions);
+    }
+
+    /**
+     * Builds the surface of the rule base.  The rule base is evaluated at
+     * every grid point in batch, as by RuleBase.evaluateBatch().
+     * @param rule_base rule base.
+     * @param resolution number of grid points of each input, in slot order
+     * (each at least 2).
+     * @return control surface.
+     */
+    public static ControlSurface build(RuleBase rule_base, int[] resolution)
+    {
+        Variable[] ivars = rule_base.getInputVariables();
+        OutputVariable[] ovars = rule_base.getOutputVariables();
+        if (resolution.length != ivars.length)
+        {
+            throw new IllegalArgumentException("Expected a resolution for " +
+                "each of " + ivars.length + " inputs");
+        }
+
+        long npoints = 1;
+        for (int d = 0; d < ivars.length; d++)
+        {
+            if (resolution[d] < 2)
+            {
+                throw new IllegalArgumentException("Resolution must be at " +
+                    "least 2: " + resolution[d]);
+            }
+            npoints *= resolution[d];
+            if (npoints * Math.max(ovars.length, 1) > Integer.MAX_VALUE)
+            {
+                throw new IllegalArgumentException("Control surface is too " +
+                    "large");
+            }
+        }
+
+        String[] input_names = new String[ivars.length];
+        double[] lower = new double[ivars.length];
+        double[] upper = new double[ivars.length];
+        for (int d = 0; d < ivars.length; d++)
+        {
+            input_names[d] = ivars[d].getName();
+            lower[d] = Double.MAX_VALUE;
+            upper[d] = -Double.MAX_VALUE;
+            for (MembershipFunction term : ivars[d].getTerms())
+            {
+                lower[d] = Math.min(lower[d], term.getDataPoint(0).getX());
+                upper[d] = Math.max(upper[d],
+                    term.getDataPoint(term.getNumberOfDataPoints() - 1).getX());
+            }
+            if (lower[d] > upper[d])
+            {
+                //  No terms:  the input does not matter.
+                lower[d] = 0.;
+                upper[d] = 0.;
+            }
+        }
+
+        String[] output_names = new String[ovars.length];
+        for (int o = 0; o < ovars.length; o++)
+        {
+            output_names[o] = ovars[o].getName();
+        }
+
+        ControlSurface surface = new ControlSurface(input_names, output_names,
+            lower, upper, resolution.clone(),
+            new double[(int) npoints * ovars.length]);
+
+        //  Evaluate every grid point.
+        int n = (int) npoints;
+        double[][] input_columns = new double[ivars.length][n];
+        double[][] output_columns = new double[ovars.length][n];
+        for (int p = 0; p < n; p++)
+        {
+            for (int d = 0; d < ivars.length; d++)
+            {
+                input_columns[d][p] = surface.gridValue(d,
+                    (p / surface.stride[d]) % resolution[d]);
+            }
+        }
+
+        rule_base.evaluateBatch(input_columns, output_columns);
+
+        for (int p = 0; p < n; p++)
+        {
+            for (int o = 0; o < ovars.length; o++)
+            {
+                surface.table[p * ovars.length + o] = output_columns[o][p];
+            }
+        }
+
+        return surface;
+    }
+
+    /**
+     * Returns the value of the input at a grid point.
+     * @param d input.
+     * @param i index of the grid point.
+     * @return crisp input.
+     */
+    private double gridValue(int d, int i)
+    {
+        return i == resolution[d] - 1 ? upper[d] : lower[d] + i * step[d];
+    }
+
+    /**
+     * Interpolates the crisp outputs at the inputs.  Inputs and outputs are
+     * in the slot order of the rule base the surface was built from.
+     * @param inputs crisp inputs, one per input.
+     * @param outputs receives the crisp outputs, one per output.
+     */
+    public void evaluate(double[] inputs, double[] outputs)
+    {
+        int n = resolution.length;
+        int noutputs = output_names.length;
+
+        //  Weights of the corners, built up one input at a time.
+        int base = 0;
+        weight[0] = 1.;
+        for (int d = 0; d < n; d++)
+        {
+            double t = (inputs[d] - lower[d]) * inverse_step[d];
+            double f;
+            int i;
+            if (!(t > 0.))
+            {
+                i = 0;
+                f = 0.;
+            }
+            else if (t >= resolution[d] - 1)
+            {
+                i = resolution[d] - 2;
+                f = 1.;
+            }
+            else
+            {
+                i = (int) t;
+                f = t - i;
+            }
+            base += i * stride[d];
+
+            int half = 1 << d;
+            for (int c = 0; c < half; c++)
+            {
+                weight[c + half] = weight[c] * f;
+                weight[c] *= 1. - f;
+            }
+        }
+
+        for (int o = 0; o < noutputs; o++)
+        {
+            outputs[o] = 0.;
+        }
+
+        for (int c = 0; c < weight.length; c++)
+        {
+            if (weight[c] == 0.)
+            {
+                continue;
+            }
+
+            int row = (base + corner[c]) * noutputs;
+            for (int o = 0; o < noutputs; o++)
+            {
+                outputs[o] += weight[c] * table[row + o];
+            }
+        }
+    }
+
+    /**
+     * Returns the largest difference, for each output, between the surface
+     * and the rule base evaluated with evaluateRules(), over a grid of
+     * validation points.  Choose a validation resolution whose points fall
+     * between those of the surface, so that the interpolation is tested.
+     * @param rule_base rule base the surface was built from.
+     * @param validation_resolution number of validation points of each
+     * input (at least 2).
+     * @return maximum absolute error of each output.
+     */
+    public double[] getMaxError(RuleBase rule_base, int validation_resolution)
+    {
+        if (validation_resolution < 2)
+        {
+            throw new IllegalArgumentException("Resolution must be at least " +
+                "2: " + validation_resolution);
+        }
+
+        int n = resolution.length;
+        int noutputs = output_names.length;
+        double[] errors = new double[noutputs];
+        double[] inputs = new double[n];
+        double[] outputs = new double[noutputs];
+
+        long npoints = 1;
+        for (int d = 0; d < n; d++)
+        {
+            npoints *= validation_resolution;
+        }
+
+        for (long p = 0; p < npoints; p++)
+        {
+            long q = p;
+            for (int d = n - 1; d >= 0; d--)
+            {
+                int i = (int) (q % validation_resolution);
+                q /= validation_resolution;
+                inputs[d] = lower[d] + (upper[d] - lower[d]) * i /
+                    (validation_resolution - 1);
+                rule_base.fuzzify(d, inputs[d]);
+            }
+
+            rule_base.evaluateRules();
+            evaluate(inputs, outputs);
+
+            for (int o = 0; o < noutputs; o++)
+            {
+                errors[o] = Math.max(errors[o],
+                    Math.abs(outputs[o] - rule_base.getCrispOutput(o)));
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * Returns the number of inputs.
+     * @return number of inputs.
+     */
+    public int getNumberOfInputs()
+    {
+        return input_names.length;
+    }
+
+    /**
+     * Returns the number of outputs.
+     * @return number of outputs.
+     */
+    public int getNumberOfOutputs()
+    {
+        return output_names.length;
+    }
+
+    /**
+     * Returns the index of the named input.
+     * @param name name of the input variable.
+     * @return index, or -1 if there is no such input.
+     */
+    public int getInputIndex(String name)
+    {
+        for (int d = 0; d < input_names.length; d++)
+        {
+            if (input_names[d].equals(name))
+            {
+                return d;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the index of the named output.
+     * @param name name of the output variable.
+     * @return index, or -1 if there is no such output.
+     */
+    public int getOutputIndex(String name)
+    {
+        for (int o = 0; o < output_names.length; o++)
+        {
+            if (output_names[o].equals(name))
+            {
+                return o;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the number of grid points of the input.
+     * @param index index of the input.
+     * @return number of grid points.
+     */
+    public int getResolution(int index)
+    {
+        return resolution[index];
+    }
+
+    /**
+     * Returns the memory taken by the table.
+     * @return size of the table in bytes.
+     */
+    public long getTableMemory()
+    {
+        return 8L * table.length;
+    }
+
+    /**
+     * Saves the surface to a file.
+     * @param file file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(File file) throws IOException
+    {
+        try (OutputStream out = new FileOutputStream(file))
+        {
+            save(out);
+        }
+    }
+
+    /**
+     * Writes the surface to a stream.  The stream is not closed.
+     * @param out stream to write.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void save(OutputStream out) throws IOException
+    {
+        DataOutputStream data =
+            new DataOutputStream(new BufferedOutputStream(out));
+
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(input_names.length);
+        data.writeInt(output_names.length);
+        for (int d = 0; d < input_names.length; d++)
+        {
+            data.writeUTF(input_names[d]);
+            data.writeDouble(lower[d]);
+            data.writeDouble(upper[d]);
+            data.writeInt(resolution[d]);
+        }
+        for (String name : output_names)
+        {
+            data.writeUTF(name);
+        }
+        for (double value : table)
+        {
+            data.writeDouble(value);
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Loads a surface from a file.
+     * @param file file to read.
+     * @return control surface.
+     * @throws IOException if the file cannot be read or is not a surface.
+     */
+    public static ControlSurface load(File file) throws IOException
+    {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file)))
+        {
+            return load(in);
+        }
+    }
+
+    /**
+     * Reads a surface from a stream, which should be buffered.  The stream
+     * is not closed.
+     * @param in stream to read.
+     * @return control surface.
+     * @throws IOException if the stream cannot be read or does not hold a
+     * surface.
+     */
+    public static ControlSurface load(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+
+        if (data.readInt() != MAGIC)
+        {
+            throw new IOException("Not a control surface");
+        }
+        int version = data.readInt();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported control surface version " +
+                version);
+        }
+
+        int ninputs = data.readInt();
+        int noutputs = data.readInt();
+        if (ninputs < 0 || noutputs < 0)
+        {
+            throw new IOException("Corrupt control surface");
+        }
+
+        String[] input_names = new String[ninputs];
+        double[] lower = new double[ninputs];
+        double[] upper = new double[ninputs];
+        int[] resolution = new int[ninputs];
+        long npoints = 1;
+        for (int d = 0; d < ninputs; d++)
+        {
+            input_names[d] = data.readUTF();
+            lower[d] = data.readDouble();
+            upper[d] = data.readDouble();
+            resolution[d] = data.readInt();
+            if (resolution[d] < 2)
+            {
+                throw new IOException("Corrupt control surface");
+            }
+            npoints *= resolution[d];
+            if (npoints * Math.max(noutputs, 1) > Integer.MAX_VALUE)
+            {
+                throw new IOException("Corrupt control surface");
+            }
+        }
+
+        String[] output_names = new String[noutputs];
+        for (int o = 0; o < noutputs; o++)
+        {
+            output_names[o] = data.readUTF();
+        }
+
+        double[] table = new double[(int) npoints * noutputs];
+        for (int i = 0; i < table.length; i++)
+        {
+            table[i] = data.readDouble();
+        }
+
+        return new ControlSurface(input_names, output_names, lower, upper,
+            resolution, table);
+    }
+}
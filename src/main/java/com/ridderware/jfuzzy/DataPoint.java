@@ -29,6 +29,9 @@ public class DataPoint
 
     private double y;
 
+    //  Membership function this is a breakpoint of, if any.
+    MembershipFunction owner;
+
     /**
      * Creates a new instance of DataPoint.
      * @param x x-value.
@@ -59,20 +62,42 @@ public class DataPoint
     }
 
     /**
-     * Sets the y-value for the point.
+     * Sets the y-value for the point.  Setting the value it already has
+     * does nothing.
      * @param y y-value.
      */
     public void setY(double y)
     {
+        if (y == this.y)
+        {
+            return;
+        }
+
         this.y = y;
+
+        if (owner != null)
+        {
+            owner.pointsChanged();
+        }
     }
 
     /**
-     * Sets the x-value for the point.
+     * Sets the x-value for the point.  Setting the value it already has
+     * does nothing.
      * @param x x-value.
      */
     public void setX(double x)
     {
+        if (x == this.x)
+        {
+            return;
+        }
+
         this.x = x;
+
+        if (owner != null)
+        {
+            owner.pointsChanged();
+        }
     }
 }
@@ -0,0 +1,95 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+/**
+ * Scratch state for evaluating a CompiledRuleBase.  Obtain one from
+ * CompiledRuleBase.createContext() and reuse it from call to call.  A
+ * context holds the fuzzified inputs, the condition stack and the
+ * accumulated output discretes of one evaluation, so any number of threads
+ * can evaluate the same compiled rule base as long as each uses its own
+ * context.
+ *
+ * @author Jeff Ridder
+ */
+public final class EvalContext
+{
+    //  Compiled rule base this context was sized for.
+    final CompiledRuleBase owner;
+
+    //  Degree of membership of every input term.
+    final double[] dom;
+
+    //  Condition program stack.
+    final double[] stack;
+
+    //  Accumulated discretes of every output variable.
+    final double[] accumulator;
+
+    //  Block-sized counterparts of the above, allocated by the first batch
+    //  evaluation.
+    double[] batch_dom;
+
+    double[] batch_stack;
+
+    double[] batch_accumulator;
+
+    //  Activated terms of every analytic output, null for the others.
+    final AnalyticDefuzzifier[] analytic;
+
+    //  One sample of the columns, when a batch is evaluated row by row.
+    double[] row_inputs;
+
+    double[] row_outputs;
+
+    //  Candidate rules and their flags, for indexed firing.
+    final int[] candidates;
+
+    final boolean[] seen;
+
+    /**
+     * Creates a new instance of EvalContext.
+     * @param owner compiled rule base the context is for.
+     * @param nterms number of input terms.
+     * @param max_stack depth of the condition stack.
+     * @param ndiscretes total number of output discretes.
+     * @param analytic which outputs use analytic defuzzification.
+     * @param ncandidates number of rules for indexed firing, or 0.
+     */
+    EvalContext(CompiledRuleBase owner, int nterms, int max_stack,
+        int ndiscretes, boolean[] analytic, int ncandidates)
+    {
+        this.owner = owner;
+        this.dom = new double[nterms];
+        this.stack = new double[max_stack];
+        this.accumulator = new double[ndiscretes];
+
+        this.candidates = new int[ncandidates];
+        this.seen = new boolean[ncandidates];
+
+        this.analytic = new AnalyticDefuzzifier[analytic.length];
+        for (int o = 0; o < analytic.length; o++)
+        {
+            if (analytic[o])
+            {
+                this.analytic[o] = new AnalyticDefuzzifier();
+            }
+        }
+    }
+}
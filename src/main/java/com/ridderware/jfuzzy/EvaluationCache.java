@@ -0,0 +1,334 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of crisp outputs in front of a rule base, for callers
+ * that evaluate the same or nearly the same inputs again and again.
+ * Inputs are quantized to a precision set per input variable, and each
+ * distinct quantized input vector is evaluated once and its crisp outputs
+ * kept.  The rule base is evaluated at the quantized inputs (each input
+ * rounded to the nearest multiple of its precision), so the outputs
+ * returned for an input do not depend on what was evaluated before.
+ * Inputs with a precision of 0, the default, are not quantized.
+ *
+ * When the cache is full, the least recently used entry is evicted.  All
+ * entries are dropped when the modification stamp of the rule base
+ * changes, that is when rules, rule weights, variables, terms, methods
+ * or operators change (see RuleBase.getModificationStamp()).
+ *
+ * On a hit the rule base is not evaluated, so its variables keep the
+ * degrees of membership and crisp outputs of the last evaluation.  Like
+ * RuleBase, the cache is not safe for use by several threads at once.
+ *
+ * @author Jeff Ridder
+ */
+public class EvaluationCache
+{
+    private final RuleBase rule_base;
+
+    private final int max_entries;
+
+    //  Precision of each input slot, 0 for exact.
+    private double[] precision;
+
+    private final LinkedHashMap<Key, double[]> entries;
+
+    //  Key reused to look up each input vector.
+    private Key probe;
+
+    private long stamp;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Creates a new instance of EvaluationCache.
+     * @param rule_base rule base to evaluate.
+     * @param max_entries largest number of input vectors to keep.
+     */
+    public EvaluationCache(RuleBase rule_base, int max_entries)
+    {
+        if (max_entries < 1)
+        {
+            throw new IllegalArgumentException("Cache size must be at least " +
+                "1: " + max_entries);
+        }
+
+        this.rule_base = rule_base;
+        this.max_entries = max_entries;
+        this.precision = new double[rule_base.getInputVariables().length];
+        this.probe = new Key(new long[precision.length]);
+        this.stamp = rule_base.getModificationStamp();
+
+        //  Access order, for least recently used eviction.
+        this.entries = new LinkedHashMap<Key, double[]>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest)
+            {
+                if (size() > EvaluationCache.this.max_entries)
+                {
+                    evictions++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Sets the precision to which the input in the slot is quantized.
+     * Changing a precision clears the cache.
+     * @param slot slot of the input variable.
+     * @param precision precision, or 0 for exact.
+     */
+    public void setPrecision(int slot, double precision)
+    {
+        if (!(precision >= 0.))
+        {
+            throw new IllegalArgumentException("Precision must not be " +
+                "negative: " + precision);
+        }
+
+        checkStamp();
+        this.precision[slot] = precision;
+        this.entries.clear();
+    }
+
+    /**
+     * Sets the precision to which the named input is quantized.
+     * @param name name of the input variable.
+     * @param precision precision, or 0 for exact.
+     */
+    public void setPrecision(String name, double precision)
+    {
+        int slot = rule_base.getInputSlot(name);
+        if (slot < 0)
+        {
+            throw new IllegalArgumentException("No input variable named " +
+                name);
+        }
+
+        setPrecision(slot, precision);
+    }
+
+    /**
+     * Returns the precision to which the input in the slot is quantized.
+     * @param slot slot of the input variable.
+     * @return precision, or 0 for exact.
+     */
+    public double getPrecision(int slot)
+    {
+        return this.precision[slot];
+    }
+
+    /**
+     * Returns the crisp outputs for the inputs, from the cache or by
+     * evaluating the rule base.  Inputs and outputs are in slot order.
+     * @param inputs crisp inputs, one per input variable.
+     * @param outputs receives the crisp outputs, one per output variable.
+     */
+    public void evaluate(double[] inputs, double[] outputs)
+    {
+        checkStamp();
+
+        long[] cells = probe.cells;
+        for (int i = 0; i < cells.length; i++)
+        {
+            cells[i] = quantize(i, inputs[i]);
+        }
+        probe.rehash();
+
+        double[] cached = entries.get(probe);
+        if (cached != null)
+        {
+            hits++;
+            System.arraycopy(cached, 0, outputs, 0, cached.length);
+            return;
+        }
+
+        misses++;
+        for (int i = 0; i < cells.length; i++)
+        {
+            rule_base.fuzzify(i, precision[i] > 0. ? cells[i] * precision[i] :
+                inputs[i]);
+        }
+        rule_base.evaluateRules();
+
+        cached = new double[rule_base.getOutputVariables().length];
+        for (int o = 0; o < cached.length; o++)
+        {
+            cached[o] = rule_base.getCrispOutput(o);
+        }
+
+        entries.put(new Key(cells.clone()), cached);
+        System.arraycopy(cached, 0, outputs, 0, cached.length);
+    }
+
+    /**
+     * Returns the cell of the quantized input.
+     * @param slot slot of the input variable.
+     * @param x crisp input.
+     * @return the nearest multiple of the precision, in units of the
+     * precision, or the bits of x if the input is exact.
+     */
+    private long quantize(int slot, double x)
+    {
+        double p = precision[slot];
+
+        return p > 0. ? Math.round(x / p) : Double.doubleToLongBits(x);
+    }
+
+    /**
+     * Clears the cache if the rule base changed since the last check, and
+     * follows any change in its number of inputs.
+     */
+    private void checkStamp()
+    {
+        long current = rule_base.getModificationStamp();
+        if (current == stamp)
+        {
+            return;
+        }
+
+        stamp = current;
+        entries.clear();
+
+        int ninputs = rule_base.getInputVariables().length;
+        if (ninputs != precision.length)
+        {
+            precision = Arrays.copyOf(precision, ninputs);
+            probe = new Key(new long[ninputs]);
+        }
+    }
+
+    /**
+     * Removes every entry.  The counters are kept.
+     */
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of input vectors cached.
+     * @return number of entries.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the largest number of input vectors kept.
+     * @return size limit.
+     */
+    public int getMaxEntries()
+    {
+        return this.max_entries;
+    }
+
+    /**
+     * Returns the number of evaluations answered from the cache.
+     * @return hits.
+     */
+    public long getHits()
+    {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of evaluations that evaluated the rule base.
+     * @return misses.
+     */
+    public long getMisses()
+    {
+        return this.misses;
+    }
+
+    /**
+     * Returns the number of entries evicted to keep within the size limit.
+     * @return evictions.
+     */
+    public long getEvictions()
+    {
+        return this.evictions;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters to zero.
+     */
+    public void resetCounters()
+    {
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    /**
+     * Quantized input vector.
+     */
+    private static final class Key
+    {
+        private final long[] cells;
+
+        private int hash;
+
+        /**
+         * Creates a new instance of Key.
+         * @param cells quantized inputs.
+         */
+        Key(long[] cells)
+        {
+            this.cells = cells;
+            rehash();
+        }
+
+        /**
+         * Recomputes the hash code after the cells change.
+         */
+        void rehash()
+        {
+            this.hash = Arrays.hashCode(cells);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && Arrays.equals(cells, ((Key) o).cells);
+        }
+    }
+}
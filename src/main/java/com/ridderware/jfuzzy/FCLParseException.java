@@ -0,0 +1,67 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.io.IOException;
+
+/**
+ * Thrown when FCL text cannot be parsed.  The message gives the line and
+ * column at which the problem was found.
+ *
+ * @author Jeff Ridder
+ */
+public class FCLParseException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+
+    private final int column;
+
+    /**
+     * Creates a new instance of FCLParseException.
+     * @param message description of the problem.
+     * @param line line number, starting at 1.
+     * @param column column number, starting at 1.
+     */
+    public FCLParseException(String message, int line, int column)
+    {
+        super("Line " + line + ", column " + column + ": " + message);
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Returns the line at which the problem was found.
+     * @return line number, starting at 1.
+     */
+    public int getLine()
+    {
+        return this.line;
+    }
+
+    /**
+     * Returns the column at which the problem was found.
+     * @return column number, starting at 1.
+     */
+    public int getColumn()
+    {
+        return this.column;
+    }
+}
@@ -0,0 +1,1091 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Single pass parser of the Fuzzy Control Language (FCL), as written by
+ * RuleBase.writeFCL().  Text is read from a Reader as it is tokenized, so
+ * statements may span lines or share them, and (* *) comments and //
+ * comments to the end of the line are skipped.  Names are made of one or
+ * more words and may contain spaces, but not the characters : ; ( ) , or
+ * two slashes in a row.  The name of a block ends at the end
+ * of its line or at the first statement of the block, and names in rules
+ * may not contain IS, NOT, AND, OR, THEN or WITH as whole words.
+ * Variables are resolved by name through the slot maps of the rule base,
+ * and terms through a map per variable.
+ *
+ * Variables, terms and rules are added to the rule base as they are read.
+ * Conditions may use AND, OR and parentheses; AND binds more tightly than
+ * OR.  Each output variable is discretized once, at the end of its
+ * DEFUZZIFY block.  Statements that are not understood inside a FUZZIFY,
+ * DEFUZZIFY or RULEBLOCK block are skipped up to the next semicolon, which
+ * must come before the next statement of the block:  meeting a TERM,
+ * METHOD, DEFAULT, ACT, ACCU or RULE keyword, or the end of the block,
+ * first is an error, so that an unterminated statement cannot swallow the
+ * statement after it.
+ *
+ * @author Jeff Ridder
+ */
+final class FCLParser
+{
+    private static final int WORD = 0;
+
+    private static final int COLON = 1;
+
+    private static final int ASSIGN = 2;
+
+    private static final int SEMICOLON = 3;
+
+    private static final int LEFT_PAREN = 4;
+
+    private static final int RIGHT_PAREN = 5;
+
+    private static final int COMMA = 6;
+
+    private static final int END = 7;
+
+    //  Words that end a name, by where the name is.  Other names end at
+    //  punctuation.  The name of a block also ends at the end of its line.
+    private static final String[] NO_STOPS = {};
+
+    private static final String[] FUNCTION_BLOCK_STOPS = {"VAR_INPUT",
+        "VAR_OUTPUT", "FUZZIFY", "DEFUZZIFY", "RULEBLOCK", "END_FUNCTION_BLOCK"};
+
+    private static final String[] FUZZIFY_STOPS = {"TERM", "END_FUZZIFY"};
+
+    private static final String[] DEFUZZIFY_STOPS = {"TERM", "METHOD",
+        "DEFAULT", "END_DEFUZZIFY"};
+
+    private static final String[] RULEBLOCK_STOPS = {"AND", "OR", "ACT",
+        "ACCU", "RULE", "END_RULEBLOCK"};
+
+    private static final String[] VARIABLE_STOPS = {"IS"};
+
+    private static final String[] CONDITION_STOPS = {"AND", "OR", "THEN"};
+
+    private static final String[] CONCLUSION_STOPS = {"WITH"};
+
+    //  Keywords that a skipped statement may not run into, where they are
+    //  not the stops of the block name.
+    private static final String[] VAR_SKIP_STOPS = {"END_VAR"};
+
+    private static final String[] RULEBLOCK_SKIP_STOPS = {"ACT", "ACCU", "RULE",
+        "END_RULEBLOCK"};
+
+    private final RuleBase rule_base;
+
+    private final Reader reader;
+
+    //  Characters read but not yet consumed are buffer[position..limit).
+    private char[] buffer = new char[8192];
+
+    private int position;
+
+    private int limit;
+
+    //  Line of the next character, and column of the last one read.
+    private int line = 1;
+
+    private int column;
+
+    //  Current token.
+    private int kind;
+
+    private String text;
+
+    private int token_line;
+
+    private int token_column;
+
+    //  Whitespace before the current token, to join the words of a name.
+    private final StringBuilder gap = new StringBuilder();
+
+    //  Term index by name, for each variable referred to by a rule.
+    private final IdentityHashMap<Variable, HashMap<String, Integer>> term_slots =
+        new IdentityHashMap<Variable, HashMap<String, Integer>>();
+
+    /**
+     * Creates a new instance of FCLParser.
+     * @param rule_base rule base to add to.
+     * @param reader source of FCL text.
+     */
+    FCLParser(RuleBase rule_base, Reader reader)
+    {
+        this.rule_base = rule_base;
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the FCL text to its end, adding what it declares to the rule
+     * base.
+     * @throws IOException if the text cannot be read.
+     * @throws FCLParseException if the text is not valid FCL.
+     */
+    void parse() throws IOException
+    {
+        advance();
+
+        while (kind != END)
+        {
+            if (isKeyword("FUNCTION_BLOCK"))
+            {
+                advance();
+                if (kind == WORD && !startsLine() &&
+                    !isStop(FUNCTION_BLOCK_STOPS))
+                {
+                    readName(FUNCTION_BLOCK_STOPS, true);
+                }
+            }
+            else if (isKeyword("END_FUNCTION_BLOCK"))
+            {
+                advance();
+            }
+            else if (isKeyword("VAR_INPUT"))
+            {
+                parseVariables(true);
+            }
+            else if (isKeyword("VAR_OUTPUT"))
+            {
+                parseVariables(false);
+            }
+            else if (isKeyword("FUZZIFY"))
+            {
+                parseFuzzify();
+            }
+            else if (isKeyword("DEFUZZIFY"))
+            {
+                parseDefuzzify();
+            }
+            else if (isKeyword("RULEBLOCK"))
+            {
+                parseRuleBlock();
+            }
+            else
+            {
+                throw unexpected();
+            }
+        }
+    }
+
+    /**
+     * Parses a VAR_INPUT or VAR_OUTPUT block, adding its variables.
+     * @param input true for input variables, false for output variables.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void parseVariables(boolean input) throws IOException
+    {
+        advance();
+
+        while (!isKeyword("END_VAR"))
+        {
+            String name = readName(NO_STOPS, false);
+            expect(COLON, "':'");
+
+            //  The type, and any initial value, are not used.
+            skipStatement(VAR_SKIP_STOPS);
+
+            if (input)
+            {
+                rule_base.addInputVariable(new Variable(name));
+            }
+            else
+            {
+                rule_base.addOutputVariable(new OutputVariable(name));
+            }
+        }
+
+        advance();
+    }
+
+    /**
+     * Parses a FUZZIFY block, adding its terms to the input variable.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void parseFuzzify() throws IOException
+    {
+        advance();
+
+        int name_line = token_line;
+        int name_column = token_column;
+        String name = readName(FUZZIFY_STOPS, true);
+        Variable ivar = rule_base.getInputVariable(name);
+        if (ivar == null)
+        {
+            throw new FCLParseException("No input variable named " + name,
+                name_line, name_column);
+        }
+
+        while (!isKeyword("END_FUZZIFY"))
+        {
+            if (isKeyword("TERM"))
+            {
+                ivar.addTerm(parseTerm());
+                term_slots.remove(ivar);
+            }
+            else
+            {
+                skipStatement(FUZZIFY_STOPS);
+            }
+        }
+
+        advance();
+    }
+
+    /**
+     * Parses a DEFUZZIFY block, adding its terms to the output variable and
+     * setting its method and default value.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void parseDefuzzify() throws IOException
+    {
+        advance();
+
+        int name_line = token_line;
+        int name_column = token_column;
+        String name = readName(DEFUZZIFY_STOPS, true);
+        OutputVariable ovar = rule_base.getOutputVariable(name);
+        if (ovar == null)
+        {
+            throw new FCLParseException("No output variable named " + name,
+                name_line, name_column);
+        }
+
+        boolean terms_added = false;
+        while (!isKeyword("END_DEFUZZIFY"))
+        {
+            if (isKeyword("TERM"))
+            {
+                ovar.addTerm(parseTerm());
+                term_slots.remove(ovar);
+                terms_added = true;
+            }
+            else if (isKeyword("METHOD"))
+            {
+                advance();
+                expect(COLON, "':'");
+                ovar.setDefuzzificationMethod(readEnum(
+                    OutputVariable.DefuzzificationMethod.class,
+                    "defuzzification method"));
+                expect(SEMICOLON, "';'");
+            }
+            else if (isKeyword("DEFAULT"))
+            {
+                advance();
+                expect(ASSIGN, "':='");
+                ovar.setDefaultValue(readNumber());
+                expect(SEMICOLON, "';'");
+            }
+            else
+            {
+                skipStatement(DEFUZZIFY_STOPS);
+            }
+        }
+
+        if (terms_added)
+        {
+            //  Do default discretize
+            ovar.discretize();
+        }
+
+        advance();
+    }
+
+    /**
+     * Parses a TERM statement.
+     * @return the membership function.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private MembershipFunction parseTerm() throws IOException
+    {
+        advance();
+
+        MembershipFunction term = new MembershipFunction(readName(NO_STOPS,
+            false));
+        expect(ASSIGN, "':='");
+
+        while (kind == LEFT_PAREN)
+        {
+            advance();
+            double x = readNumber();
+            expect(COMMA, "','");
+            double y = readNumber();
+            expect(RIGHT_PAREN, "')'");
+
+            term.addDataPoint(x, y);
+        }
+
+        expect(SEMICOLON, "';'");
+
+        return term;
+    }
+
+    /**
+     * Parses a RULEBLOCK block, setting the operators and methods of the
+     * rule base and adding its rules.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void parseRuleBlock() throws IOException
+    {
+        advance();
+        if (kind == WORD && !startsLine() && !isStop(RULEBLOCK_STOPS))
+        {
+            readName(RULEBLOCK_STOPS, true);
+        }
+
+        while (!isKeyword("END_RULEBLOCK"))
+        {
+            if (isKeyword("AND"))
+            {
+                advance();
+                expect(COLON, "':'");
+                rule_base.setAndOperator(readEnum(And.FuzzyAndOperator.class,
+                    "And operator"));
+                expect(SEMICOLON, "';'");
+            }
+            else if (isKeyword("OR"))
+            {
+                advance();
+                expect(COLON, "':'");
+                rule_base.setOrOperator(readEnum(Or.FuzzyOrOperator.class,
+                    "Or operator"));
+                expect(SEMICOLON, "';'");
+            }
+            else if (isKeyword("ACT"))
+            {
+                advance();
+                expect(COLON, "':'");
+                rule_base.setActivationMethod(readEnum(
+                    RuleBase.ActivationMethod.class, "activation method"));
+                expect(SEMICOLON, "';'");
+            }
+            else if (isKeyword("ACCU"))
+            {
+                advance();
+                expect(COLON, "':'");
+                rule_base.setAccumulationMethod(readEnum(
+                    RuleBase.AccumulationMethod.class, "accumulation method"));
+                expect(SEMICOLON, "';'");
+            }
+            else if (isKeyword("RULE"))
+            {
+                parseRule();
+            }
+            else
+            {
+                skipStatement(RULEBLOCK_SKIP_STOPS);
+            }
+        }
+
+        advance();
+    }
+
+    /**
+     * Parses a RULE statement and adds the rule.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void parseRule() throws IOException
+    {
+        advance();
+
+        //  The rule number is not used; rules keep the order of the text.
+        while (kind == WORD && !isKeyword("IF"))
+        {
+            advance();
+        }
+        expect(COLON, "':'");
+        expectKeyword("IF");
+
+        ICondition condition = parseCondition();
+
+        expectKeyword("THEN");
+
+        Conclusion conclusion = parseConclusion();
+
+        expect(SEMICOLON, "';'");
+
+        rule_base.addRule(new Rule(condition, conclusion));
+    }
+
+    /**
+     * Parses a condition: terms separated by OR.
+     * @return the condition.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private ICondition parseCondition() throws IOException
+    {
+        ICondition first = parseAndCondition();
+        if (!isKeyword("OR"))
+        {
+            return first;
+        }
+
+        ArrayList<ICondition> operands = new ArrayList<ICondition>();
+        operands.add(first);
+        while (isKeyword("OR"))
+        {
+            advance();
+            operands.add(parseAndCondition());
+        }
+
+        Or or = new Or(operands.get(operands.size() - 1),
+            operands.get(operands.size() - 2));
+        for (int i = operands.size() - 3; i >= 0; i--)
+        {
+            or = new Or(operands.get(i), or);
+        }
+
+        return or;
+    }
+
+    /**
+     * Parses a term of a condition: simple conditions separated by AND.
+     * @return the condition.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private ICondition parseAndCondition() throws IOException
+    {
+        ICondition first = parseSimpleCondition();
+        if (!isKeyword("AND"))
+        {
+            return first;
+        }
+
+        ArrayList<ICondition> operands = new ArrayList<ICondition>();
+        operands.add(first);
+        while (isKeyword("AND"))
+        {
+            advance();
+            operands.add(parseSimpleCondition());
+        }
+
+        //  # of ands always # simples-1
+        And and = new And(operands.get(operands.size() - 1),
+            operands.get(operands.size() - 2));
+        for (int i = operands.size() - 3; i >= 0; i--)
+        {
+            and = new And(operands.get(i), and);
+        }
+
+        return and;
+    }
+
+    /**
+     * Parses "variable IS [NOT] term", or a condition in parentheses.
+     * @return the condition.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private ICondition parseSimpleCondition() throws IOException
+    {
+        if (kind == LEFT_PAREN)
+        {
+            advance();
+            ICondition condition = parseCondition();
+            expect(RIGHT_PAREN, "')'");
+
+            return condition;
+        }
+
+        int name_line = token_line;
+        int name_column = token_column;
+        String name = readName(VARIABLE_STOPS, false);
+        Variable ivar = rule_base.getInputVariable(name);
+        if (ivar == null)
+        {
+            throw new FCLParseException("No input variable named " + name,
+                name_line, name_column);
+        }
+
+        expectKeyword("IS");
+
+        boolean not = false;
+        if (isKeyword("NOT"))
+        {
+            advance();
+            not = true;
+        }
+
+        return new SubCondition(ivar, readTerm(ivar, CONDITION_STOPS), not);
+    }
+
+    /**
+     * Parses "variable IS term [WITH weight]".
+     * @return the conclusion.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private Conclusion parseConclusion() throws IOException
+    {
+        int name_line = token_line;
+        int name_column = token_column;
+        String name = readName(VARIABLE_STOPS, false);
+        OutputVariable ovar = rule_base.getOutputVariable(name);
+        if (ovar == null)
+        {
+            throw new FCLParseException("No output variable named " + name,
+                name_line, name_column);
+        }
+
+        expectKeyword("IS");
+
+        int term_index = readTerm(ovar, CONCLUSION_STOPS);
+
+        double weight = 1.;
+        if (isKeyword("WITH"))
+        {
+            advance();
+            weight = readNumber();
+        }
+
+        return new Conclusion(ovar, term_index, weight);
+    }
+
+    /**
+     * Reads the name of a term of the variable.
+     * @param variable variable.
+     * @param stops words that end the name.
+     * @return index of the term.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private int readTerm(Variable variable, String[] stops)
+        throws IOException
+    {
+        int name_line = token_line;
+        int name_column = token_column;
+        String name = readName(stops, false);
+
+        HashMap<String, Integer> slots = term_slots.get(variable);
+        if (slots == null)
+        {
+            //  Like Variable.getTermIndex(), the first term of a name wins.
+            MembershipFunction[] terms = variable.getTerms();
+            slots = new HashMap<String, Integer>(2 * terms.length);
+            for (int i = terms.length - 1; i >= 0; i--)
+            {
+                slots.put(terms[i].getName(), i);
+            }
+            term_slots.put(variable, slots);
+        }
+
+        Integer index = slots.get(name);
+        if (index == null)
+        {
+            throw new FCLParseException("No term named " + name +
+                " in variable " + variable.getName(), name_line, name_column);
+        }
+
+        return index;
+    }
+
+    /**
+     * Reads a name: one or more words joined by the whitespace between them.
+     * @param stops words that end the name.
+     * @param one_line whether the name ends at the end of the line.
+     * @return the name.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private String readName(String[] stops, boolean one_line)
+        throws IOException
+    {
+        if (kind != WORD || isStop(stops))
+        {
+            throw unexpected();
+        }
+
+        String name = text;
+        advance();
+
+        StringBuilder joined = null;
+        while (kind == WORD && !isStop(stops) &&
+            !(one_line && startsLine()))
+        {
+            if (joined == null)
+            {
+                joined = new StringBuilder(name);
+            }
+            joined.append(gap).append(text);
+            advance();
+        }
+
+        return joined != null ? joined.toString() : name;
+    }
+
+    /**
+     * Reads a number.
+     * @return the number.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private double readNumber() throws IOException
+    {
+        if (kind != WORD)
+        {
+            throw unexpected();
+        }
+
+        double value;
+        try
+        {
+            value = Double.parseDouble(text);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new FCLParseException("Expected a number, found '" + text +
+                "'", token_line, token_column);
+        }
+
+        advance();
+
+        return value;
+    }
+
+    /**
+     * Reads a word naming a constant of the enumeration.
+     * @param <E> enumeration type.
+     * @param type enumeration class.
+     * @param what description of the constant, for errors.
+     * @return the constant.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private <E extends Enum<E>> E readEnum(Class<E> type, String what)
+        throws IOException
+    {
+        if (kind != WORD)
+        {
+            throw unexpected();
+        }
+
+        E value;
+        try
+        {
+            value = Enum.valueOf(type, text);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new FCLParseException("Unknown " + what + " '" + text + "'",
+                token_line, token_column);
+        }
+
+        advance();
+
+        return value;
+    }
+
+    /**
+     * Skips tokens up to and including the next semicolon.
+     * @param stops keywords that begin the next statement of the block, and
+     * so may not come before the semicolon.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void skipStatement(String[] stops) throws IOException
+    {
+        int start_line = token_line;
+        int start_column = token_column;
+
+        while (kind != SEMICOLON)
+        {
+            if (kind == END)
+            {
+                throw unexpected();
+            }
+            if (kind == WORD && isStop(stops))
+            {
+                throw new FCLParseException("Expected ';' to end the " +
+                    "statement at line " + start_line + ", column " +
+                    start_column + ", found " + describe(), token_line,
+                    token_column);
+            }
+            advance();
+        }
+
+        advance();
+    }
+
+    /**
+     * Checks the kind of the current token and moves past it.
+     * @param expected kind of token expected.
+     * @param description description of the token, for errors.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void expect(int expected, String description) throws IOException
+    {
+        if (kind != expected)
+        {
+            throw new FCLParseException("Expected " + description + ", found " +
+                describe(), token_line, token_column);
+        }
+
+        advance();
+    }
+
+    /**
+     * Checks that the current token is the keyword and moves past it.
+     * @param keyword keyword expected.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void expectKeyword(String keyword) throws IOException
+    {
+        if (!isKeyword(keyword))
+        {
+            throw new FCLParseException("Expected " + keyword + ", found " +
+                describe(), token_line, token_column);
+        }
+
+        advance();
+    }
+
+    /**
+     * Returns whether the current token is the keyword.
+     * @param keyword keyword.
+     * @return true if it is.
+     */
+    private boolean isKeyword(String keyword)
+    {
+        return kind == WORD && text.equals(keyword);
+    }
+
+    /**
+     * Returns whether the current token is one of the words.
+     * @param stops words.
+     * @return true if it is.
+     */
+    private boolean isStop(String[] stops)
+    {
+        for (String stop : stops)
+        {
+            if (stop.equals(text))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the current token is the first on its line.
+     * @return true if a line break comes before it.
+     */
+    private boolean startsLine()
+    {
+        return gap.indexOf("\n") >= 0;
+    }
+
+    /**
+     * Returns an exception for an unexpected current token.
+     * @return exception.
+     */
+    private FCLParseException unexpected()
+    {
+        return new FCLParseException("Unexpected " + describe(), token_line,
+            token_column);
+    }
+
+    /**
+     * Returns a description of the current token, for errors.
+     * @return description.
+     */
+    private String describe()
+    {
+        switch (kind)
+        {
+            case WORD:
+                return "'" + text + "'";
+            case COLON:
+                return "':'";
+            case ASSIGN:
+                return "':='";
+            case SEMICOLON:
+                return "';'";
+            case LEFT_PAREN:
+                return "'('";
+            case RIGHT_PAREN:
+                return "')'";
+            case COMMA:
+                return "','";
+            default:
+                return "end of input";
+        }
+    }
+
+    /**
+     * Reads the next token, skipping whitespace and comments.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void advance() throws IOException
+    {
+        gap.setLength(0);
+        text = null;
+
+        while (true)
+        {
+            if (position == limit && !fill())
+            {
+                token_line = line;
+                token_column = column + 1;
+                kind = END;
+                return;
+            }
+
+            char c = buffer[position];
+            if (c == '\n')
+            {
+                line++;
+                column = 0;
+            }
+            else if (Character.isWhitespace(c))
+            {
+                column++;
+            }
+            else if (c == '(' && charAfter() == '*')
+            {
+                skipComment();
+                continue;
+            }
+            else if (c == '/' && charAfter() == '/')
+            {
+                skipLineComment();
+                continue;
+            }
+            else
+            {
+                break;
+            }
+
+            gap.append(c);
+            position++;
+        }
+
+        token_line = line;
+        token_column = column + 1;
+
+        switch (buffer[position])
+        {
+            case ':':
+                if (charAfter() == '=')
+                {
+                    consume(2);
+                    kind = ASSIGN;
+                }
+                else
+                {
+                    consume(1);
+                    kind = COLON;
+                }
+                return;
+            case ';':
+                kind = SEMICOLON;
+                break;
+            case '(':
+                kind = LEFT_PAREN;
+                break;
+            case ')':
+                kind = RIGHT_PAREN;
+                break;
+            case ',':
+                kind = COMMA;
+                break;
+            default:
+                readWord();
+                return;
+        }
+
+        consume(1);
+    }
+
+    /**
+     * Reads a word, which runs to the next whitespace or punctuation.
+     * @throws IOException if the text cannot be read.
+     */
+    private void readWord() throws IOException
+    {
+        int end = position + 1;
+        while (true)
+        {
+            if (end == limit)
+            {
+                int length = end - position;
+                if (!fill())
+                {
+                    end = position + length;
+                    break;
+                }
+                end = position + length;
+                continue;
+            }
+
+            if (isDelimiter(buffer[end]))
+            {
+                break;
+            }
+            if (buffer[end] == '/' && end + 1 < limit && buffer[end + 1] == '/')
+            {
+                //  A // comment ends the word.
+                break;
+            }
+            if (buffer[end] == '/' && end + 1 == limit)
+            {
+                //  Read on to see whether a second '/' follows.
+                int length = end - position;
+                if (fill())
+                {
+                    end = position + length;
+                    continue;
+                }
+                end = position + length;
+            }
+            end++;
+        }
+
+        text = new String(buffer, position, end - position);
+        kind = WORD;
+        consume(end - position);
+    }
+
+    /**
+     * Skips a comment, from its opening '('.
+     * @throws IOException if the text cannot be read or parsed.
+     */
+    private void skipComment() throws IOException
+    {
+        int start_line = line;
+        int start_column = column + 1;
+
+        consume(2);
+        char previous = 0;
+        while (true)
+        {
+            if (position == limit && !fill())
+            {
+                throw new FCLParseException("Unterminated comment",
+                    start_line, start_column);
+            }
+
+            char c = buffer[position++];
+            if (c == '\n')
+            {
+                line++;
+                column = 0;
+            }
+            else
+            {
+                column++;
+            }
+
+            if (previous == '*' && c == ')')
+            {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    /**
+     * Skips a // comment, from its first '/', up to the end of the line.
+     * The line break itself is left to be read as whitespace.
+     * @throws IOException if the text cannot be read.
+     */
+    private void skipLineComment() throws IOException
+    {
+        while (true)
+        {
+            if (position == limit && !fill())
+            {
+                return;
+            }
+
+            if (buffer[position] == '\n')
+            {
+                return;
+            }
+            consume(1);
+        }
+    }
+
+    /**
+     * Returns whether the character ends a word.
+     * @param c character.
+     * @return true for whitespace and punctuation.
+     */
+    private static boolean isDelimiter(char c)
+    {
+        return c == ' ' || c == ':' || c == ';' || c == '(' || c == ')' ||
+            c == ',' || Character.isWhitespace(c);
+    }
+
+    /**
+     * Returns the character after the next one, without reading either.
+     * @return the character, or -1 at the end of the input.
+     * @throws IOException if the text cannot be read.
+     */
+    private int charAfter() throws IOException
+    {
+        if (position + 1 >= limit && !fill())
+        {
+            return -1;
+        }
+
+        return position + 1 < limit ? buffer[position + 1] : -1;
+    }
+
+    /**
+     * Moves past characters known to be on the current line.
+     * @param count number of characters.
+     */
+    private void consume(int count)
+    {
+        position += count;
+        column += count;
+    }
+
+    /**
+     * Moves the unread characters to the front of the buffer, growing it if
+     * they fill it, and reads more after them.
+     * @return false at the end of the input.
+     * @throws IOException if the text cannot be read.
+     */
+    private boolean fill() throws IOException
+    {
+        int remaining = limit - position;
+        if (position > 0)
+        {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+            position = 0;
+            limit = remaining;
+        }
+
+        if (limit == buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+
+        int n = reader.read(buffer, limit, buffer.length - limit);
+        if (n <= 0)
+        {
+            return false;
+        }
+        limit += n;
+
+        return true;
+    }
+}
@@ -0,0 +1,324 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Writer of a rule base in the Fuzzy Control Language (FCL), in the form
+ * read by FCLParser.  Each line is built in one reusable buffer and written
+ * straight to the Writer, so memory use does not grow with the number of
+ * rules, and conditions are walked with an explicit stack rather than by
+ * recursion, so deeply nested conditions cannot overflow the call stack.
+ *
+ * @author Jeff Ridder
+ */
+final class FCLWriter
+{
+    private static final String NEWLINE = System.getProperty("line.separator");
+
+    private final Writer writer;
+
+    private final StringBuilder line = new StringBuilder(256);
+
+    private char[] chars = new char[256];
+
+    //  Conditions and separators still to write, last first.
+    private final ArrayList<Object> stack = new ArrayList<Object>();
+
+    /**
+     * Creates a new instance of FCLWriter.
+     * @param writer destination of the FCL text.
+     */
+    FCLWriter(Writer writer)
+    {
+        this.writer = writer;
+    }
+
+    /**
+     * Writes the rule base.  The writer is flushed but not closed.
+     * @param rule_base rule base to write.
+     * @throws IOException if the text cannot be written.
+     */
+    void write(RuleBase rule_base) throws IOException
+    {
+        writeLine("FUNCTION_BLOCK");
+
+        //	Variables
+        writeLine("VAR_INPUT");
+        for (Variable ivar : rule_base.getInputVariables())
+        {
+            line.append('\t').append(ivar.getName()).append(" :\tREAL;");
+            endLine();
+        }
+        writeLine("END_VAR");
+
+        writeLine("VAR_OUTPUT");
+        for (Variable ovar : rule_base.getOutputVariables())
+        {
+            line.append('\t').append(ovar.getName()).append(" :\tREAL;");
+            endLine();
+        }
+        writeLine("END_VAR");
+
+        for (Variable ivar : rule_base.getInputVariables())
+        {
+            line.append("FUZZIFY ").append(ivar.getName());
+            endLine();
+
+            writeTerms(ivar);
+
+            writeLine("END_FUZZIFY");
+        }
+
+        for (OutputVariable ovar : rule_base.getOutputVariables())
+        {
+            line.append("DEFUZZIFY ").append(ovar.getName());
+            endLine();
+
+            writeTerms(ovar);
+
+            line.append("\tMETHOD : ").append(ovar.getDefuzzificationMethod()).
+                append(';');
+            endLine();
+
+            line.append("\tDEFAULT := ").append(ovar.getDefaultValue()).
+                append(';');
+            endLine();
+
+            writeLine("END_DEFUZZIFY");
+        }
+
+        //	Rule block
+        writeLine("RULEBLOCK");
+
+        line.append("\tAND : ").append(rule_base.getAndOperator()).append(';');
+        endLine();
+
+        //  The Or operator is implied by the And operator unless it was set
+        //  apart from it.
+        if (rule_base.getOrOperator() != dual(rule_base.getAndOperator()))
+        {
+            line.append("\tOR : ").append(rule_base.getOrOperator()).append(';');
+            endLine();
+        }
+
+        line.append("\tACT : ").append(rule_base.getActivationMethod()).
+            append(';');
+        endLine();
+
+        line.append("\tACCU : ").append(rule_base.getAccumulationMethod()).
+            append(';');
+        endLine();
+
+        Rule[] rules = rule_base.getRules();
+        for (int i = 0; i < rules.length; i++)
+        {
+            appendRule(line, rules[i], i + 1, stack);
+            endLine();
+        }
+
+        writeLine("END_RULEBLOCK");
+        writeLine("END_FUNCTION_BLOCK");
+
+        writer.flush();
+    }
+
+    /**
+     * Writes a TERM statement for each term of the variable.
+     * @param variable variable.
+     * @throws IOException if the text cannot be written.
+     */
+    private void writeTerms(Variable variable) throws IOException
+    {
+        for (MembershipFunction term : variable.getTerms())
+        {
+            line.append("\tTERM ").append(term.getName()).append(" :=");
+
+            for (int j = 0; j < term.getNumberOfDataPoints(); j++)
+            {
+                DataPoint p = term.getDataPoint(j);
+
+                line.append(" (").append(p.getX()).append(", ").
+                    append(p.getY()).append(')');
+            }
+
+            line.append(';');
+            endLine();
+        }
+    }
+
+    /**
+     * Writes a line of fixed text.
+     * @param text text of the line.
+     * @throws IOException if the text cannot be written.
+     */
+    private void writeLine(String text) throws IOException
+    {
+        writer.write(text);
+        writer.write(NEWLINE);
+    }
+
+    /**
+     * Writes the line built so far and empties the buffer.
+     * @throws IOException if the text cannot be written.
+     */
+    private void endLine() throws IOException
+    {
+        line.append(NEWLINE);
+
+        int length = line.length();
+        if (length > chars.length)
+        {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+        line.getChars(0, length, chars, 0);
+        writer.write(chars, 0, length);
+
+        line.setLength(0);
+    }
+
+    /**
+     * Returns the Or operator that setAndOperator() pairs with the And
+     * operator.
+     * @param and_operator And operator.
+     * @return dual Or operator.
+     */
+    private static Or.FuzzyOrOperator dual(And.FuzzyAndOperator and_operator)
+    {
+        switch (and_operator)
+        {
+            case PROD:
+                return Or.FuzzyOrOperator.ASUM;
+            case BDIF:
+                return Or.FuzzyOrOperator.BSUM;
+            default:
+                return Or.FuzzyOrOperator.MAX;
+        }
+    }
+
+    /**
+     * Appends a RULE statement, without a line break.
+     * @param fcl buffer to append to.
+     * @param rule rule.
+     * @param rule_number number of the rule.
+     * @param stack scratch stack, left empty.
+     */
+    static void appendRule(StringBuilder fcl, Rule rule, int rule_number,
+        ArrayList<Object> stack)
+    {
+        fcl.append("\tRULE ").append(rule_number).append(" : IF ");
+        appendCondition(fcl, rule.getCondition(), stack);
+        fcl.append(" THEN ");
+        appendConclusion(fcl, rule.getConclusion());
+        fcl.append(';');
+    }
+
+    /**
+     * Appends a condition.  Or conditions within an And are put in
+     * parentheses, since AND binds more tightly than OR.
+     * @param fcl buffer to append to.
+     * @param condition condition.
+     * @param stack scratch stack, left empty.
+     */
+    static void appendCondition(StringBuilder fcl, ICondition condition,
+        ArrayList<Object> stack)
+    {
+        stack.add(condition);
+
+        while (!stack.isEmpty())
+        {
+            Object item = stack.remove(stack.size() - 1);
+
+            if (item instanceof String)
+            {
+                fcl.append((String) item);
+            }
+            else if (item instanceof SubCondition)
+            {
+                SubCondition simple = (SubCondition) item;
+                Variable variable = simple.getVariable();
+
+                fcl.append(variable.getName()).append(simple.isNot() ?
+                    " IS NOT " : " IS ").
+                    append(variable.getTerm(simple.getTermIndex()).getName());
+            }
+            else if (item instanceof And)
+            {
+                And and = (And) item;
+
+                //  Pushed in reverse, so condition1 is written first.
+                push(stack, and.getCondition2());
+                stack.add(" AND ");
+                push(stack, and.getCondition1());
+            }
+            else if (item instanceof Or)
+            {
+                Or or = (Or) item;
+
+                stack.add(or.getCondition2());
+                stack.add(" OR ");
+                stack.add(or.getCondition1());
+            }
+            else
+            {
+                fcl.append(((ICondition) item).writeFCL());
+            }
+        }
+    }
+
+    /**
+     * Pushes an operand of an And, in parentheses if it is an Or.
+     * @param stack stack.
+     * @param operand operand.
+     */
+    private static void push(ArrayList<Object> stack, ICondition operand)
+    {
+        if (operand instanceof Or)
+        {
+            stack.add(")");
+            stack.add(operand);
+            stack.add("(");
+        }
+        else
+        {
+            stack.add(operand);
+        }
+    }
+
+    /**
+     * Appends a conclusion.
+     * @param fcl buffer to append to.
+     * @param conclusion conclusion.
+     */
+    static void appendConclusion(StringBuilder fcl, Conclusion conclusion)
+    {
+        OutputVariable ovar = conclusion.getOutputVariable();
+
+        fcl.append(ovar.getName()).append(" IS ").
+            append(ovar.getTerm(conclusion.getTermIndex()).getName());
+
+        if (conclusion.getWeight() < 1.0)
+        {
+            fcl.append(" WITH ").append(conclusion.getWeight());
+        }
+    }
+}
@@ -33,8 +33,23 @@ public interface ICondition
     public String writeFCL();
 
     /**
-     * Aggregates subconditions and returns the result.
+     * Aggregates subconditions with the default operators and returns the
+     * result.
      *@return result of aggregation.
      */
     public double aggregate();
+
+    /**
+     * Aggregates subconditions with the specified operators and returns the
+     * result.  Conditions that do not override this aggregate with the
+     * default operators.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
+     * @return result of aggregation.
+     */
+    public default double aggregate(And.FuzzyAndOperator and_operator,
+        Or.FuzzyOrOperator or_operator)
+    {
+        return aggregate();
+    }
 }
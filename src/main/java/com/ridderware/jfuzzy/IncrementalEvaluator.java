@@ -0,0 +1,335 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.util.Arrays;
+
+/**
+ * Incremental evaluation of a rule base, for when only some inputs change
+ * between evaluations.  The evaluator keeps the degrees of membership of
+ * every input term as last seen, and the activation level of every rule.
+ * On each evaluation it finds the input variables whose degrees of
+ * membership changed, re-aggregates only the rules that depend on them,
+ * and rebuilds and defuzzifies only the outputs for which some activation
+ * level changed.  Those outputs are rebuilt from the cached activation
+ * levels of all their rules, in rule order and skipping zero levels, so
+ * the crisp outputs are the same as from a full evaluation.
+ *
+ * Rules whose condition refers to variables outside the rule base, or is
+ * not made of SubCondition, And and Or, are re-aggregated on every
+ * evaluation.  Rules concluding on variables outside the rule base are
+ * aggregated only.
+ *
+ * @author Jeff Ridder
+ */
+final class IncrementalEvaluator
+{
+    private final Rule[] rules;
+
+    private final Variable[] ivars;
+
+    private final OutputVariable[] ovars;
+
+    //  Degree of membership of each input term as last seen, by variable
+    //  then term.
+    private final int[] term_start;
+
+    private final double[] dom;
+
+    //  Rules depending on each input variable,
+    //  var_rules[var_start[v]..var_start[v+1]).
+    private final int[] var_start;
+
+    private final int[] var_rules;
+
+    //  Rules re-aggregated on every evaluation.
+    private final int[] always;
+
+    //  Rules concluding on each output variable, in rule order,
+    //  output_rules[output_start[o]..output_start[o+1]).
+    private final int[] output_start;
+
+    private final int[] output_rules;
+
+    //  Output slot of each rule's conclusion, or -1.
+    private final int[] rule_output;
+
+    //  Activation level of each rule, weight included.
+    private final double[] levels;
+
+    //  Evaluation in which each rule was last re-aggregated.
+    private final int[] rule_tick;
+
+    private int tick;
+
+    private final boolean[] dirty;
+
+    private boolean primed;
+
+    /**
+     * Creates a new instance of IncrementalEvaluator.
+     * @param rules rules, in evaluation order.
+     * @param ivars input variables.
+     * @param ovars output variables.
+     */
+    IncrementalEvaluator(Rule[] rules, Variable[] ivars, OutputVariable[] ovars)
+    {
+        this.rules = rules;
+        this.ivars = ivars;
+        this.ovars = ovars;
+
+        this.term_start = new int[ivars.length + 1];
+        for (int v = 0; v < ivars.length; v++)
+        {
+            term_start[v + 1] = term_start[v] + ivars[v].getTerms().length;
+        }
+        this.dom = new double[term_start[ivars.length]];
+
+        //  Input variables of each rule, or null to re-aggregate always.
+        boolean[][] depends = new boolean[rules.length][];
+        int[] var_counts = new int[ivars.length];
+        int nalways = 0;
+        for (int r = 0; r < rules.length; r++)
+        {
+            depends[r] = new boolean[ivars.length];
+            if (!collect(rules[r].getCondition(), depends[r]))
+            {
+                depends[r] = null;
+                nalways++;
+                continue;
+            }
+
+            for (int v = 0; v < ivars.length; v++)
+            {
+                if (depends[r][v])
+                {
+                    var_counts[v]++;
+                }
+            }
+        }
+
+        this.var_start = new int[ivars.length + 1];
+        for (int v = 0; v < ivars.length; v++)
+        {
+            var_start[v + 1] = var_start[v] + var_counts[v];
+        }
+        this.var_rules = new int[var_start[ivars.length]];
+        this.always = new int[nalways];
+
+        int[] fill = Arrays.copyOf(var_start, ivars.length);
+        int a = 0;
+        for (int r = 0; r < rules.length; r++)
+        {
+            if (depends[r] == null)
+            {
+                always[a++] = r;
+                continue;
+            }
+
+            for (int v = 0; v < ivars.length; v++)
+            {
+                if (depends[r][v])
+                {
+                    var_rules[fill[v]++] = r;
+                }
+            }
+        }
+
+        //  Rules by output variable.
+        this.rule_output = new int[rules.length];
+        int[] output_counts = new int[ovars.length];
+        for (int r = 0; r < rules.length; r++)
+        {
+            Conclusion conclusion = rules[r].getConclusion();
+            OutputVariable ovar = conclusion == null ? null :
+                conclusion.getOutputVariable();
+            rule_output[r] = indexOf(ovars, ovar);
+            if (rule_output[r] >= 0)
+            {
+                output_counts[rule_output[r]]++;
+            }
+        }
+
+        this.output_start = new int[ovars.length + 1];
+        for (int o = 0; o < ovars.length; o++)
+        {
+            output_start[o + 1] = output_start[o] + output_counts[o];
+        }
+        this.output_rules = new int[output_start[ovars.length]];
+
+        fill = Arrays.copyOf(output_start, ovars.length);
+        for (int r = 0; r < rules.length; r++)
+        {
+            if (rule_output[r] >= 0)
+            {
+                output_rules[fill[rule_output[r]]++] = r;
+            }
+        }
+
+        this.levels = new double[rules.length];
+        this.rule_tick = new int[rules.length];
+        this.dirty = new boolean[ovars.length];
+    }
+
+    /**
+     * Marks the input variables the condition depends on.
+     * @param condition condition.
+     * @param depends flags, one per input variable.
+     * @return false if the dependencies cannot be determined.
+     */
+    private boolean collect(ICondition condition, boolean[] depends)
+    {
+        if (condition instanceof SubCondition)
+        {
+            int v = indexOf(ivars, ((SubCondition) condition).getVariable());
+            if (v < 0)
+            {
+                return false;
+            }
+
+            depends[v] = true;
+            return true;
+        }
+        else if (condition instanceof And)
+        {
+            And and = (And) condition;
+            return collect(and.getCondition1(), depends) &&
+                collect(and.getCondition2(), depends);
+        }
+        else if (condition instanceof Or)
+        {
+            Or or = (Or) condition;
+            return collect(or.getCondition1(), depends) &&
+                collect(or.getCondition2(), depends);
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the index of the object in the array, compared by identity.
+     * @param array array to search.
+     * @param o object to find.
+     * @return index, or -1 if not found.
+     */
+    private static int indexOf(Object[] array, Object o)
+    {
+        for (int i = 0; i < array.length; i++)
+        {
+            if (array[i] == o)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Evaluates the rule base, redoing only the work that the inputs changed
+     * since the last evaluation require.  The first evaluation is full.
+     * @param kernel accumulation kernel.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
+     */
+    void evaluate(AccumulationKernel kernel, And.FuzzyAndOperator and_operator,
+        Or.FuzzyOrOperator or_operator)
+    {
+        tick++;
+
+        for (int v = 0; v < ivars.length; v++)
+        {
+            //  Compare every term, so the snapshot is brought up to date.
+            Variable ivar = ivars[v];
+            boolean changed = !primed;
+            for (int t = term_start[v]; t < term_start[v + 1]; t++)
+            {
+                double d = ivar.getTerm(t - term_start[v]).getDOM();
+                if (d != dom[t])
+                {
+                    dom[t] = d;
+                    changed = true;
+                }
+            }
+
+            if (changed)
+            {
+                for (int k = var_start[v]; k < var_start[v + 1]; k++)
+                {
+                    aggregate(var_rules[k], and_operator, or_operator);
+                }
+            }
+        }
+
+        for (int k = 0; k < always.length; k++)
+        {
+            aggregate(always[k], and_operator, or_operator);
+        }
+
+        for (int o = 0; o < ovars.length; o++)
+        {
+            if (primed && !dirty[o])
+            {
+                continue;
+            }
+
+            OutputVariable ovar = ovars[o];
+            ovar.resetDiscretes();
+            for (int k = output_start[o]; k < output_start[o + 1]; k++)
+            {
+                int r = output_rules[k];
+                if (levels[r] != 0.)
+                {
+                    rules[r].accumulate(kernel);
+                }
+            }
+            ovar.defuzzify();
+            dirty[o] = false;
+        }
+
+        primed = true;
+    }
+
+    /**
+     * Re-aggregates the rule, once per evaluation, and marks its output
+     * dirty if its activation level changed.
+     * @param r rule index.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
+     */
+    private void aggregate(int r, And.FuzzyAndOperator and_operator,
+        Or.FuzzyOrOperator or_operator)
+    {
+        if (rule_tick[r] == tick)
+        {
+            return;
+        }
+        rule_tick[r] = tick;
+
+        double level = rules[r].aggregate(and_operator, or_operator);
+        if (level != levels[r] || !primed)
+        {
+            levels[r] = level;
+            if (rule_output[r] >= 0)
+            {
+                dirty[rule_output[r]] = true;
+            }
+        }
+    }
+}
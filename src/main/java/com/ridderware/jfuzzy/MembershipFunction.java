@@ -23,20 +23,44 @@ import java.util.Collections;
 import java.util.Comparator;
 
 /**
- * Class for fuzzy membership functions.
+ * Class for fuzzy membership functions.  A membership function is
+ * piecewise linear between its data points, which must be kept in order of
+ * increasing x.  The data points are packed into primitive arrays for
+ * calculating degrees of membership, so that lookup is a binary search, or
+ * a single index computation when the points are evenly spaced.
  * @author Jeff Ridder
  */
 public class MembershipFunction
 {
     private final ArrayList<DataPoint> points = new ArrayList<>();
 
+    //  Data points packed for calculateDOM(), rebuilt when a point changes.
+    private double[] packed_x = new double[0];
+
+    private double[] packed_y = new double[0];
+
+    //  Spacing of the packed points if even, otherwise 0.
+    private double packed_step;
+
+    private boolean packed;
+
+    //  Incremented whenever a data point is added or changed.
+    private int modification_count;
+
+    //  Modification clock reading at the last change of a data point.
+    private long version;
+
     //  Name of the set.
     private String name;
 
     private double dom;
 
+    //  Discretized values, discrete_y[discrete_offset..], usually a row of
+    //  the term matrix of the output variable.
     private double[] discrete_y = new double[1];
 
+    private int discrete_offset;
+
     /**
      * Creates a new instance of MembershipFunction
      * @param name name of the membership function.
@@ -62,9 +86,84 @@ public class MembershipFunction
      */
     public void addDataPoint(double x, double y)
     {
-        points.add(new DataPoint(x, y));
+        DataPoint p = new DataPoint(x, y);
+        p.owner = this;
+        points.add(p);
 
         Collections.sort(points, new DataPointsComparator());
+
+        this.pointsChanged();
+    }
+
+    /**
+     * Called when a data point is added or changed.
+     */
+    void pointsChanged()
+    {
+        this.packed = false;
+        this.modification_count++;
+        this.version = ModificationClock.tick();
+    }
+
+    /**
+     * Returns a count that changes whenever a data point is added or changed.
+     * @return modification count.
+     */
+    int getModificationCount()
+    {
+        return this.modification_count;
+    }
+
+    /**
+     * Returns the modification clock reading at the last change of a data
+     * point.
+     * @return version.
+     */
+    long getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * Packs the data points into arrays, and checks their spacing.
+     */
+    private void pack()
+    {
+        int n = points.size();
+        if (packed_x.length != n)
+        {
+            packed_x = new double[n];
+            packed_y = new double[n];
+        }
+
+        for (int i = 0; i < n; i++)
+        {
+            DataPoint p = points.get(i);
+            packed_x[i] = p.getX();
+            packed_y[i] = p.getY();
+        }
+
+        packed_step = uniformStep(packed_x, 0, n - 1);
+        packed = true;
+    }
+
+    /**
+     * Adds this function, activated to the specified level, to an analytic
+     * defuzzifier.
+     * @param analytic analytic defuzzifier.
+     * @param level activation level.
+     */
+    void activate(AnalyticDefuzzifier analytic, double level)
+    {
+        if (!packed)
+        {
+            pack();
+        }
+
+        if (packed_x.length > 0)
+        {
+            analytic.add(packed_x, packed_y, 0, packed_x.length - 1, level);
+        }
     }
 
     /**
@@ -93,7 +192,7 @@ public class MembershipFunction
      */
     public void setDiscreteY(int index, double y)
     {
-        discrete_y[index] = y;
+        discrete_y[discrete_offset + index] = y;
     }
 
     /**
@@ -103,6 +202,19 @@ public class MembershipFunction
     public void setNumberOfDiscreteValues(int discretes)
     {
         this.discrete_y = new double[discretes];
+        this.discrete_offset = 0;
+    }
+
+    /**
+     * Places the discrete values of the membership function in a row of a
+     * larger array, starting at the offset.
+     * @param values array holding the discrete values.
+     * @param offset index of the first discrete value.
+     */
+    void setDiscreteValues(double[] values, int offset)
+    {
+        this.discrete_y = values;
+        this.discrete_offset = offset;
     }
 
     /**
@@ -112,7 +224,26 @@ public class MembershipFunction
      */
     public double getDiscreteY(int index)
     {
-        return discrete_y[index];
+        return discrete_y[discrete_offset + index];
+    }
+
+    /**
+     * Returns the array holding the discrete y-values, for accumulation
+     * kernels to work on directly.  The values start at getDiscreteOffset().
+     * @return discrete y-values.
+     */
+    double[] getDiscreteValues()
+    {
+        return discrete_y;
+    }
+
+    /**
+     * Returns the index of the first discrete y-value in getDiscreteValues().
+     * @return offset.
+     */
+    int getDiscreteOffset()
+    {
+        return discrete_offset;
     }
 
     /**
@@ -124,6 +255,15 @@ public class MembershipFunction
         return this.dom;
     }
 
+    /**
+     * Sets the degree-of-membership, as computed elsewhere.
+     * @param dom fuzzy degree of membership.
+     */
+    void setDOM(double dom)
+    {
+        this.dom = dom;
+    }
+
     /**
      * Calculates the fuzzy degree of membership for the specified crisp input.
      * @param x input-value.
@@ -131,31 +271,116 @@ public class MembershipFunction
      */
     public double calculateDOM(double x)
     {
-        if (x <= points.get(0).getX())
+        if (!packed)
+        {
+            pack();
+        }
+
+        this.dom = interpolate(packed_x, packed_y, 0, packed_x.length - 1,
+            packed_step, x);
+
+        return this.dom;
+    }
+
+    /**
+     * Returns the spacing of the points x[first..last] if they are evenly
+     * spaced, or 0 if they are not.
+     * @param x x-values in increasing order.
+     * @param first index of the first point.
+     * @param last index of the last point.
+     * @return spacing, or 0.
+     */
+    static double uniformStep(double[] x, int first, int last)
+    {
+        if (last - first < 2)
         {
-            this.dom = points.get(0).getY();
+            return 0.;
         }
-        else if (x >= points.get(points.size() - 1).getX())
+
+        double step = (x[last] - x[first]) / (last - first);
+        if (!(step > 0.))
         {
-            this.dom = points.get(points.size() - 1).getY();
+            return 0.;
         }
-        else
+
+        for (int i = first + 1; i < last; i++)
+        {
+            if (Math.abs(x[i] - (x[first] + (i - first) * step)) > 1e-9 * step)
+            {
+                return 0.;
+            }
+        }
+
+        return step;
+    }
+
+    /**
+     * Interpolates the piecewise linear function through the points
+     * (x[first], y[first]) .. (x[last], y[last]) at v, holding the end values
+     * outside the points.  A point exactly on a breakpoint takes the value of
+     * the segment ending there.  If step is the even spacing of the points
+     * (see uniformStep()), the segment is found by an index computation,
+     * otherwise by binary search.
+     * @param x x-values in increasing order.
+     * @param y y-values.
+     * @param first index of the first point.
+     * @param last index of the last point.
+     * @param step spacing of the points if even, otherwise 0.
+     * @param v value to interpolate at.
+     * @return interpolated value.
+     */
+    static double interpolate(double[] x, double[] y, int first, int last,
+        double step, double v)
+    {
+        if (v <= x[first])
+        {
+            return y[first];
+        }
+        else if (v >= x[last])
+        {
+            return y[last];
+        }
+
+        //  Find the segment i with x[i] < v <= x[i+1].
+        int i;
+        if (step > 0.)
         {
-            for (int i = 0; i < points.size() - 1; i++)
+            i = first + (int) ((v - x[first]) / step);
+            if (i > last - 1)
             {
-                DataPoint p = points.get(i);
-                DataPoint pp1 = points.get(i + 1);
+                i = last - 1;
+            }
 
-                if (p.getX() < x && pp1.getX() >= x)
+            //  Correct for rounding in the index computation.
+            while (i > first && v <= x[i])
+            {
+                i--;
+            }
+            while (v > x[i + 1])
+            {
+                i++;
+            }
+        }
+        else
+        {
+            int lo = first + 1;
+            int hi = last;
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (x[mid] < v)
                 {
-                    this.dom = p.getY() + (pp1.getY() - p.getY()) * (x -
-                        p.getX()) / (pp1.getX() - p.getX());
-                    break;
+                    lo = mid + 1;
+                }
+                else
+                {
+                    hi = mid;
                 }
             }
+            i = lo - 1;
         }
 
-        return this.dom;
+        return y[i] + (y[i + 1] - y[i]) * (v - x[i]) / (x[i + 1] - x[i]);
     }
 
     /**
@@ -0,0 +1,58 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock of changes to rule bases and their parts.  Every change to a rule
+ * base, rule weight, variable or term ticks the clock, so a reading that
+ * has not moved since the last one proves that nothing changed in
+ * between, and state derived from a rule base can be checked with one
+ * read instead of a walk over its rules and terms.  The clock is shared by
+ * all rule bases, so it may also move for changes to other rule bases.
+ *
+ * @author Jeff Ridder
+ */
+final class ModificationClock
+{
+    private static final AtomicLong clock = new AtomicLong();
+
+    private ModificationClock()
+    {
+    }
+
+    /**
+     * Ticks the clock, for a change.
+     * @return the new reading.
+     */
+    static long tick()
+    {
+        return clock.incrementAndGet();
+    }
+
+    /**
+     * Returns the current reading.
+     * @return reading.
+     */
+    static long now()
+    {
+        return clock.get();
+    }
+}
@@ -32,21 +32,47 @@ public class Or implements ICondition
         /**
          * max(cond1, cond2)
          */
-        MAX,
+        MAX
+        {
+            public double apply(double term1, double term2)
+            {
+                return Math.max(term1, term2);
+            }
+        },
         /**
          * cond1+cond2-cond1*cond2
          */
-        ASUM,
+        ASUM
+        {
+            public double apply(double term1, double term2)
+            {
+                return term1 + term2 - term1 * term2;
+            }
+        },
         /**
          * min(1, cond1+cond2)
          */
         BSUM
+        {
+            public double apply(double term1, double term2)
+            {
+                return Math.min(1., term1 + term2);
+            }
+        };
 
+        /**
+         * Applies the operator to two terms.
+         * @param term1 first term.
+         * @param term2 second term.
+         * @return result of the operator.
+         */
+        public abstract double apply(double term1, double term2);
     }
     private ICondition condition1;
 
     private ICondition condition2;
 
+    //  Operator used by aggregate() when none is supplied.
     private static FuzzyOrOperator or_operator = FuzzyOrOperator.MAX;
 
     /** Creates a new instance of Or */
@@ -108,51 +134,77 @@ public class Or implements ICondition
     @Override
     public int hashCode()
     {
+        //  Symmetric in the two conditions, as equals() is.  The product
+        //  keeps apart nestings of the same simple conditions.
+        int hash1 = this.condition1 != null ? this.condition1.hashCode() : 0;
+        int hash2 = this.condition2 != null ? this.condition2.hashCode() : 0;
         int hash = 7;
-        hash =
-            11 * hash +
-            (this.condition1 != null ? this.condition1.hashCode() : 0);
-        hash =
-            11 * hash +
-            (this.condition2 != null ? this.condition2.hashCode() : 0);
+        hash = 11 * hash + hash1 + hash2 + 31 * hash1 * hash2;
         return hash;
     }
 
     /**
-     * Aggregates the conditions.
+     * Returns the first condition.
+     * @return first condition.
+     */
+    ICondition getCondition1()
+    {
+        return this.condition1;
+    }
+
+    /**
+     * Returns the second condition.
+     * @return second condition.
+     */
+    ICondition getCondition2()
+    {
+        return this.condition2;
+    }
+
+    /**
+     * Aggregates the conditions with the default operators.
      * @return aggregated value.
      */
+    @SuppressWarnings("deprecation")
     public double aggregate()
     {
-        double term1 = condition1.aggregate();
-        double term2 = condition2.aggregate();
+        return aggregate(And.getAndOperator(), Or.or_operator);
+    }
 
-        switch (or_operator)
-        {
-            case MAX:
-                return Math.max(term1, term2);
-            case ASUM:
-                return term1 + term2 - term1 * term2;
-            case BSUM:
-                return Math.min(1., term1 + term2);
-            default:
-                return 0.;
-        }
+    /**
+     * Aggregates the conditions with the specified operators.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
+     * @return aggregated value.
+     */
+    public double aggregate(And.FuzzyAndOperator and_operator,
+        FuzzyOrOperator or_operator)
+    {
+        double term1 = condition1.aggregate(and_operator, or_operator);
+        double term2 = condition2.aggregate(and_operator, or_operator);
+
+        return or_operator.apply(term1, term2);
     }
 
     /**
-     * Sets the Or operator.
+     * Sets the default Or operator, used by aggregate() when no operator is
+     * supplied.  Rule bases hold their own operator and do not use this.
      * @param or_operator or operator.
+     * @deprecated set the operator on the rule base with
+     * RuleBase.setOrOperator().
      */
+    @Deprecated
     public static void setOrOperator(FuzzyOrOperator or_operator)
     {
         Or.or_operator = or_operator;
     }
 
     /**
-     * Returns the or operator.
+     * Returns the default or operator.
      * @return or operator.
+     * @deprecated use RuleBase.getOrOperator().
      */
+    @Deprecated
     public static FuzzyOrOperator getOrOperator()
     {
         return Or.or_operator;
@@ -18,8 +18,14 @@
  */
 package com.ridderware.jfuzzy;
 
+import java.util.Arrays;
+
 /**
- * Class to represent fuzzy linguistic output variables.
+ * Class to represent fuzzy linguistic output variables.  By default rules
+ * accumulate into a discretization of the output, which is then
+ * defuzzified.  With analytic defuzzification enabled, rules record their
+ * activation levels instead, and the crisp value is computed exactly from
+ * the piecewise-linear terms without any discretization.
  *
  * @author Jeff Ridder
  */
@@ -46,13 +52,40 @@ public class OutputVariable extends Variable
     
     private double crisp_value;
 
+    //  Whether the last crisp value is the default value, because nothing
+    //  was activated.
+    private boolean defaulted;
+
     private double default_value;
 
     private int num_discretes;
 
     private DefuzzificationMethod defuzzification_method;
 
-    private DataPoint[] discrete_points = new DataPoint[0];
+    //  Crisp value of the first discrete point, and the spacing of the
+    //  points.  The crisp value of point i is min_x + i * delta_x.
+    private double min_x;
+
+    private double delta_x;
+
+    //  Accumulated degree of membership at each discrete point.
+    private double[] discrete_y = new double[0];
+
+    //  Discretized terms, one row of num_discretes values per term.
+    private double[] term_discretes = new double[0];
+
+    //  Modification count of each term when last discretized, or null.
+    private int[] discretized_counts;
+
+    //  Activated terms collected for analytic defuzzification, or null when
+    //  the output is discretized.
+    private AnalyticDefuzzifier analytic;
+
+    private RuleBase.ActivationMethod activation_method =
+        RuleBase.ActivationMethod.MIN;
+
+    private RuleBase.AccumulationMethod accumulation_method =
+        RuleBase.AccumulationMethod.MAX;
 
     /**
      * Creates a new instance of OutputVariable
@@ -73,6 +106,7 @@ public class OutputVariable extends Variable
     public void setNumDiscretes(int num_discretes)
     {
         this.num_discretes = num_discretes;
+        variableChanged();
     }
 
     /**
@@ -84,13 +118,121 @@ public class OutputVariable extends Variable
         return this.num_discretes;
     }
 
+    /**
+     * Selects analytic defuzzification, which computes the crisp output
+     * exactly from the activated terms instead of from the discretized
+     * output.  An analytic variable need not be discretized, and its
+     * discrete values are left at zero by inference.  Single-point terms
+     * are taken as point masses (see AnalyticDefuzzifier), so analytic
+     * defuzzification is refused for COGS outputs that mix single-point
+     * terms with others.
+     * @param analytic true for analytic defuzzification.
+     */
+    public void setAnalyticDefuzzification(boolean analytic)
+    {
+        if (analytic)
+        {
+            checkAnalytic(getTerms(), this.defuzzification_method);
+        }
+
+        this.analytic = analytic ? new AnalyticDefuzzifier() : null;
+        variableChanged();
+    }
+
+    /**
+     * Adds a membership function to the variable.  Under analytic COGS
+     * defuzzification, single-point and other terms may not be mixed.
+     * @param term a MembershipFunction object.
+     */
+    @Override
+    public void addTerm(MembershipFunction term)
+    {
+        if (this.analytic != null)
+        {
+            MembershipFunction[] terms = Arrays.copyOf(getTerms(),
+                getTerms().length + 1);
+            terms[terms.length - 1] = term;
+            checkAnalytic(terms, this.defuzzification_method);
+        }
+
+        super.addTerm(term);
+    }
+
+    /**
+     * Throws IllegalArgumentException if analytic defuzzification cannot
+     * handle the terms with the method:  COGS with both single-point terms
+     * and terms of more points.
+     * @param terms terms of the variable.
+     * @param method defuzzification method.
+     */
+    private void checkAnalytic(MembershipFunction[] terms,
+        DefuzzificationMethod method)
+    {
+        if (method != DefuzzificationMethod.COGS)
+        {
+            return;
+        }
+
+        int singletons = 0;
+        for (MembershipFunction term : terms)
+        {
+            if (term.getNumberOfDataPoints() == 1)
+            {
+                singletons++;
+            }
+        }
+
+        if (singletons > 0 && singletons < terms.length)
+        {
+            throw new IllegalArgumentException("Analytic COGS " +
+                "defuzzification of " + getName() + " needs all terms or " +
+                "none to be single points");
+        }
+    }
+
+    /**
+     * Returns whether analytic defuzzification is selected.
+     * @return true if analytic.
+     */
+    public boolean isAnalyticDefuzzification()
+    {
+        return this.analytic != null;
+    }
+
+    /**
+     * Records the activation of one of the terms for analytic
+     * defuzzification.
+     * @param term_index index of the term.
+     * @param level activation level.
+     * @param activation_method activation method.
+     * @param accumulation_method accumulation method.
+     */
+    void addActivation(int term_index, double level,
+        RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method)
+    {
+        this.activation_method = activation_method;
+        this.accumulation_method = accumulation_method;
+
+        if (level > 0.)
+        {
+            getTerm(term_index).activate(analytic, level);
+        }
+    }
+
     /**
      * Sets the defuzzification method for this variable.
      * @param defuzzification_method defuzzification method.
      */
     public void setDefuzzificationMethod(DefuzzificationMethod defuzzification_method)
     {
+        if (this.analytic != null)
+        {
+            checkAnalytic(getTerms(), defuzzification_method);
+        }
+
         this.defuzzification_method = defuzzification_method;
+        variableChanged();
     }
 
     /**
@@ -112,6 +254,16 @@ public class OutputVariable extends Variable
         return this.crisp_value;
     }
 
+    /**
+     * Returns whether the last defuzzification fell back to the default
+     * value, because nothing was activated.
+     * @return true if the crisp value is the default value.
+     */
+    boolean isDefaulted()
+    {
+        return this.defaulted;
+    }
+
     /**
      * Returns the index of the nearest discrete point lower than the
      * input parameter.  Note that if you are searching for two indices that
@@ -125,14 +277,14 @@ public class OutputVariable extends Variable
      */
     public int getDiscreteIndex(double x)
     {
-        double min_x = discrete_points[0].getX();
-        double max_x = discrete_points[num_discretes - 1].getX();
+        int n = discrete_y.length;
+        double max_x = min_x + (n - 1) * delta_x;
 
         double deltaX = max_x - min_x;
 
-        if (num_discretes >= 2)
+        if (n >= 2)
         {
-            deltaX /= (double) (num_discretes - 1);
+            deltaX /= (double) (n - 1);
         }
 
         return (int) ((x - min_x) / deltaX);
@@ -147,7 +299,16 @@ public class OutputVariable extends Variable
      */
     public double getDiscreteX(int index)
     {
-        return this.discrete_points[index].getX();
+        return this.min_x + index * this.delta_x;
+    }
+
+    /**
+     * Returns the spacing of the crisp values of the discrete points.
+     * @return spacing.
+     */
+    double getDiscreteStep()
+    {
+        return this.delta_x;
     }
 
     /**
@@ -159,7 +320,7 @@ public class OutputVariable extends Variable
      */
     public double getDiscreteY(int index)
     {
-        return this.discrete_points[index].getY();
+        return this.discrete_y[index];
     }
 
     /**
@@ -169,7 +330,17 @@ public class OutputVariable extends Variable
      */
     public void setDiscreteY(int index, double value)
     {
-        this.discrete_points[index].setY(value);
+        this.discrete_y[index] = value;
+    }
+
+    /**
+     * Returns the accumulated degrees of membership of the discrete points,
+     * for accumulation kernels to work on directly.
+     * @return discrete y-values.
+     */
+    double[] getDiscreteValues()
+    {
+        return this.discrete_y;
     }
 
     /**
@@ -179,6 +350,7 @@ public class OutputVariable extends Variable
     public void setDefaultValue(double default_value)
     {
         this.default_value = default_value;
+        variableChanged();
     }
 
     /**
@@ -193,24 +365,42 @@ public class OutputVariable extends Variable
     /**
      * Discretizes the crisp domain of the variable.  This is a one shot
      * deal for each output variable and helps to accelerate execution of
-     * fuzzy rules.
+     * fuzzy rules.  When the variable is discretized again, only the terms
+     * added or changed since are recomputed, unless the crisp domain or
+     * the number of discretes changed; the others keep their discretized
+     * values (including any set by hand).
      */
     public void discretize()
     {
-        discrete_points = new DataPoint[num_discretes];
+        MembershipFunction[] terms = getTerms();
+
+        //  Keep the rows of the terms if they are still laid out to fit.
+        boolean laid_out = discretized_counts != null &&
+            discretized_counts.length == terms.length && isDiscretized(terms);
+        if (laid_out)
+        {
+            Arrays.fill(discrete_y, 0.);
+        }
+        else
+        {
+            discrete_y = new double[num_discretes];
+            term_discretes = new double[terms.length * num_discretes];
+            discretized_counts = new int[terms.length];
+        }
 
         //	Find min_x and max_x
         double min_x = Double.MAX_VALUE;
         double max_x = -Double.MAX_VALUE;
 
-        for (MembershipFunction term : getTerms())
+        for (int j = 0; j < terms.length; j++)
         {
+            MembershipFunction term = terms[j];
             min_x = Math.min(min_x, term.getDataPoint(0).getX());
             max_x = Math.max(max_x, term.getDataPoint(term.getNumberOfDataPoints() - 1).
                 getX());
 
-            //	Reset them while we're at it.
-            term.setNumberOfDiscreteValues(num_discretes);
+            //	Give each its row of the matrix while we're at it.
+            term.setDiscreteValues(term_discretes, j * num_discretes);
         }
 
         //	Compute deltaX;
@@ -221,16 +411,59 @@ public class OutputVariable extends Variable
             deltaX /= (double) (num_discretes - 1);
         }
 
-        for (int i = 0; i < num_discretes; i++)
+        boolean same_grid = laid_out && min_x == this.min_x &&
+            deltaX == this.delta_x;
+        boolean changed = !same_grid;
+        this.min_x = min_x;
+        this.delta_x = deltaX;
+
+        for (int j = 0; j < terms.length; j++)
         {
-            DataPoint p = new DataPoint(min_x + i * deltaX, 0.);
-            discrete_points[i] = p;
+            int count = terms[j].getModificationCount();
+            if (same_grid && discretized_counts[j] == count)
+            {
+                continue;
+            }
 
-            for (MembershipFunction term : getTerms())
+            int row = j * num_discretes;
+            for (int i = 0; i < num_discretes; i++)
             {
-                term.setDiscreteY(i, term.calculateDOM(p.getX()));
+                term_discretes[row + i] = terms[j].calculateDOM(min_x + i * deltaX);
             }
+            discretized_counts[j] = count;
+            changed = true;
         }
+
+        if (changed)
+        {
+            variableChanged();
+        }
+    }
+
+    /**
+     * Returns whether the terms are discretized into the rows of this
+     * variable at the current number of discretes.
+     * @param terms terms of the variable.
+     * @return true if discretized.
+     */
+    private boolean isDiscretized(MembershipFunction[] terms)
+    {
+        if (discrete_y.length != num_discretes ||
+            term_discretes.length != terms.length * num_discretes)
+        {
+            return false;
+        }
+
+        for (int j = 0; j < terms.length; j++)
+        {
+            if (terms[j].getDiscreteValues() != term_discretes ||
+                terms[j].getDiscreteOffset() != j * num_discretes)
+            {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     /**
@@ -238,10 +471,12 @@ public class OutputVariable extends Variable
      */
     public void resetDiscretes()
     {
-        for (DataPoint p : this.discrete_points)
+        if (this.analytic != null)
         {
-            p.setY(0.);
+            this.analytic.reset();
         }
+
+        Arrays.fill(this.discrete_y, 0.);
     }
 
     /**
@@ -251,59 +486,56 @@ public class OutputVariable extends Variable
      */
     public double defuzzify()
     {
+        if (this.analytic != null)
+        {
+            this.crisp_value = analytic.defuzzify(activation_method,
+                accumulation_method, defuzzification_method, default_value);
+            this.defaulted = analytic.isEmpty();
+            return this.crisp_value;
+        }
+
+        //  The sums do not depend on the methods; any kernel will do.
+        AccumulationKernel kernel =
+            AccumulationKernel.get(activation_method, accumulation_method);
+        int n = discrete_y.length;
+        this.defaulted = false;
+
         switch (this.defuzzification_method)
         {
             case COG:
             case COGS:
             {
-                double sumMoments = 0.;
-                double sumDOMS = 0.;
-                double refX = discrete_points[0].getX();
-
-                for (DataPoint p : this.discrete_points)
-                {
-                    sumMoments += p.getX() * p.getY();
-                    sumDOMS += p.getY();
-                }
-
+                double sumDOMS = kernel.sum(discrete_y, 0, n);
 
                 if (sumDOMS > 0.)
                 {
-                    this.crisp_value = sumMoments / sumDOMS;
+                    this.crisp_value =
+                        kernel.moment(discrete_y, 0, n, min_x, delta_x) / sumDOMS;
                 }
                 else
                 {
                     this.crisp_value = this.default_value;
+                    this.defaulted = true;
                 }
 
                 break;
             }
             case COA:
             {
-                double sumDOMS = 0.;
-
-                for (DataPoint p : this.discrete_points)
-                {
-                    sumDOMS += p.getY();
-                }
+                double sumDOMS = kernel.sum(discrete_y, 0, n);
 
                 if (sumDOMS <= 0.)
                 {
                     this.crisp_value = this.default_value;
+                    this.defaulted = true;
                     break;
                 }
 
                 //	Now go back and find the halfway point.
-                double sumHalf = 0.;
-                for (DataPoint p : this.discrete_points)
+                int i = kernel.halfway(discrete_y, 0, n, 0.5 * sumDOMS);
+                if (i >= 0)
                 {
-                    sumHalf += p.getY();
-
-                    if (sumHalf > 0.5 * sumDOMS)
-                    {
-                        this.crisp_value = p.getX();
-                        break;
-                    }
+                    this.crisp_value = min_x + i * delta_x;
                 }
 
                 break;
@@ -311,6 +543,7 @@ public class OutputVariable extends Variable
             default:
             {
                 this.crisp_value = this.default_value;
+                this.defaulted = true;
             }
         }
 
@@ -18,6 +18,8 @@
  */
 package com.ridderware.jfuzzy;
 
+import java.util.ArrayList;
+
 /**
  * Class to represent a fuzzy rule.  Each rule is of the form:
  * If [Condition] Then [Conclusion]
@@ -40,52 +42,95 @@ public class Rule
         this.conclusion = conclusion;
     }
 
+    /**
+     * Fires the inference for the rule using the default And/Or operators.
+     * 
+     * @param activation_method activation method.
+     * @param accumulation_method accumulation method.
+     */
+    @SuppressWarnings("deprecation")
+    public void infer(RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method)
+    {
+        infer(activation_method, accumulation_method, And.getAndOperator(),
+            Or.getOrOperator());
+    }
+
     /**
      * Fires the inference for the rule.  Note that this results in:
      * -# Aggregation: evaluating conditions.
      * -# Activation: assigning activation level.
      * -# Accumulation : assigning results of this rule to the
      * 	output variable.
+     * If the output variable uses analytic defuzzification, accumulation
+     * only records the activation level with the variable.
      * 
      * @param activation_method activation method.
      * @param accumulation_method accumulation method.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
      */
     public void infer(RuleBase.ActivationMethod activation_method,
-        RuleBase.AccumulationMethod accumulation_method)
+        RuleBase.AccumulationMethod accumulation_method,
+        And.FuzzyAndOperator and_operator, Or.FuzzyOrOperator or_operator)
+    {
+        infer(AccumulationKernel.get(activation_method, accumulation_method),
+            and_operator, or_operator);
+    }
+
+    /**
+     * Fires the inference for the rule, activating and accumulating with the
+     * kernel.
+     * @param kernel accumulation kernel.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
+     */
+    void infer(AccumulationKernel kernel, And.FuzzyAndOperator and_operator,
+        Or.FuzzyOrOperator or_operator)
+    {
+        aggregate(and_operator, or_operator);
+        accumulate(kernel);
+    }
+
+    /**
+     * Aggregates the condition and sets the activation level of the
+     * conclusion.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
+     * @return activation level, weight included.
+     */
+    double aggregate(And.FuzzyAndOperator and_operator,
+        Or.FuzzyOrOperator or_operator)
     {
-        //	Aggregate
-        conclusion.setActivationLevel(condition.aggregate());
+        conclusion.setActivationLevel(condition.aggregate(and_operator,
+            or_operator));
 
-        int xstart = conclusion.getStartX();
-        int xend = conclusion.getEndX();
+        return conclusion.getActivationLevel();
+    }
 
-        //	Accumulate
-        switch (accumulation_method)
+    /**
+     * Activates the conclusion to its current activation level and
+     * accumulates it into the output variable.
+     * @param kernel accumulation kernel.
+     */
+    void accumulate(AccumulationKernel kernel)
+    {
+        OutputVariable output_variable = conclusion.getOutputVariable();
+        if (output_variable == null)
         {
-            case MAX:
-            {
-                for (int i = xstart; i <= xend; i++)
-                {
-                    double value =
-                        conclusion.getActivatedValue(activation_method, i);
-                    conclusion.setY(i, Math.max(value, conclusion.getY(i)));
-                }
-                break;
-            }
-            case BSUM:
-            {
-                for (int i = xstart; i <= xend; i++)
-                {
-                    double value =
-                        conclusion.getActivatedValue(activation_method, i);
-                    conclusion.setY(i, Math.min(1., value + conclusion.getY(i)));
-                }
-                break;
-            }
-            default:
-            {
-            }
+            return;
         }
+
+        if (output_variable.isAnalyticDefuzzification())
+        {
+            output_variable.addActivation(conclusion.getTermIndex(),
+                conclusion.getActivationLevel(), kernel.getActivationMethod(),
+                kernel.getAccumulationMethod());
+            return;
+        }
+
+        //	Activate and accumulate
+        conclusion.accumulate(kernel);
     }
 
     /**
@@ -95,13 +140,10 @@ public class Rule
      */
     public String writeFCL(int rule_number)
     {
-        String str = "\tRULE " + rule_number + " : IF ";
-        str += this.getCondition().writeFCL();
-        str += " THEN ";
-        str += this.getConclusion().writeFCL();
-        str += ";";
+        StringBuilder fcl = new StringBuilder();
+        FCLWriter.appendRule(fcl, this, rule_number, new ArrayList<Object>());
 
-        return str;
+        return fcl.toString();
     }
 
     /**
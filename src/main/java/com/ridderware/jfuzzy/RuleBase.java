@@ -19,19 +19,37 @@
 package com.ridderware.jfuzzy;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
 import org.apache.logging.log4j.*;
 
 /**
  * Class to represent a collection of rules (i.e., a rule base).
  *
+ * Input and output variables are each given an integer slot, in the order
+ * they are added.  Resolve a name to its slot once with getInputSlot() or
+ * getOutputSlot(), then use fuzzify(int, double) and getCrispOutput(int)
+ * in loops.
+ *
  * @author Jeff Ridder
  */
 public class RuleBase
@@ -65,22 +83,102 @@ public class RuleBase
         BSUM
 
     }
-    private HashSet<Rule> rules = new HashSet<Rule>();
+    //  Rules in the order they were added, rules[0..num_rules), and the same
+    //  rules by identity, to reject a rule added twice.
+    private Rule[] rules = new Rule[16];
+
+    private int num_rules;
+
+    private IdentityHashMap<Rule, Rule> rule_set =
+        new IdentityHashMap<Rule, Rule>();
+
+    //  Variables in slot order, and the slot of each variable name.
+    private ArrayList<OutputVariable> output_variables =
+        new ArrayList<OutputVariable>();
 
-    private HashSet<OutputVariable> output_variables =
-        new HashSet<OutputVariable>();
+    private ArrayList<Variable> input_variables = new ArrayList<Variable>();
 
-    private HashSet<Variable> input_variables = new HashSet<Variable>();
+    private HashMap<String, Integer> output_slots =
+        new HashMap<String, Integer>();
+
+    private HashMap<String, Integer> input_slots =
+        new HashMap<String, Integer>();
+
+    //  Snapshots of the variable lists for iteration without allocation,
+    //  built on first use and dropped whenever the lists change.
+    private Variable[] input_array;
+
+    private OutputVariable[] output_array;
 
     private ActivationMethod activation_method;
 
     private AccumulationMethod accumulation_method;
 
+    //  Kernel for the activation and accumulation methods.
+    private AccumulationKernel kernel;
+
+    private And.FuzzyAndOperator and_operator;
+
+    private Or.FuzzyOrOperator or_operator;
+
+    //  Indexed firing, see setIndexedFiring().  The index is built on first
+    //  use and dropped whenever rules or input variables change.
+    private boolean indexed_firing;
+
+    private RuleIndex rule_index;
+
+    private Rule[] indexed_rules;
+
+    private Variable[] indexed_variables;
+
+    private int[] indexed_term_start;
+
+    private double[] indexed_dom;
+
+    private int[] candidates;
+
+    private int num_candidates;
+
+    private boolean[] seen;
+
+    //  Incremental evaluation, see setIncrementalEvaluation().  The state is
+    //  built on first use, and rebuilt when the modification stamp it was
+    //  built at changes or after invalidate().
+    private boolean incremental;
+
+    private IncrementalEvaluator incremental_evaluator;
+
+    private long incremental_stamp;
+
+    //  Modification clock reading at the last change of the rules,
+    //  variables, methods or operators.
+    private long version;
+
+    //  Modification stamp, as of a reading of the modification clock.
+    private long stamp;
+
+    private long stamp_clock = -1;
+
+    //  Compiled rule base and context reused by evaluateBatch(), and the
+    //  modification stamp they were compiled at.
+    private CompiledRuleBase batch_compiled;
+
+    private EvalContext batch_context;
+
+    private long batch_stamp;
+
+    //  Metrics recorded by evaluateRules(), or null.
+    private RuleBaseMetrics metrics;
+
     /** Creates a new instance of RuleBase */
     public RuleBase()
     {
         this.accumulation_method = AccumulationMethod.MAX;
         this.activation_method = ActivationMethod.MIN;
+        this.kernel = AccumulationKernel.get(activation_method,
+            accumulation_method);
+        this.and_operator = And.FuzzyAndOperator.MIN;
+        this.or_operator = Or.FuzzyOrOperator.MAX;
     }
 
     /**
@@ -88,7 +186,163 @@ public class RuleBase
      */
     public void clearRules()
     {
-        this.rules.clear();
+        Arrays.fill(this.rules, 0, num_rules, null);
+        this.num_rules = 0;
+        this.rule_set.clear();
+        this.invalidate();
+    }
+
+    /**
+     * Discards the state derived from the rules and variables:  the rule
+     * index and the incremental evaluation state.  The rule base does this
+     * itself when rules, variables, methods or operators are set through it,
+     * and sees changes to rule weights, terms and output settings through
+     * the modification stamp; call it after changing rules in other ways in
+     * place.
+     */
+    public void invalidate()
+    {
+        this.rule_index = null;
+        this.incremental_evaluator = null;
+        this.version = ModificationClock.tick();
+    }
+
+    /**
+     * Called when a method or operator changes.
+     */
+    private void methodsChanged()
+    {
+        this.incremental_evaluator = null;
+        this.version = ModificationClock.tick();
+    }
+
+    /**
+     * Returns a stamp that changes whenever the rule base changes in a way
+     * that may change its crisp outputs:  rules or variables are added or
+     * cleared, methods or operators are set, rule weights are set, terms
+     * are added or their data points changed, outputs are discretized or
+     * their settings changed, or invalidate() is called.  The stamp never
+     * returns to an earlier value, so an equal stamp means no change.  It is
+     * recomputed only when the modification clock has moved since it was
+     * last computed, so reading it again is cheap while nothing changes.
+     * @return modification stamp.
+     */
+    public long getModificationStamp()
+    {
+        long now = ModificationClock.now();
+        if (now != this.stamp_clock)
+        {
+            //  Read the clock first, so a change made while computing is
+            //  seen on the next call.
+            this.stamp = computeModificationStamp();
+            this.stamp_clock = now;
+        }
+
+        return this.stamp;
+    }
+
+    /**
+     * Computes the modification stamp:  the latest modification clock
+     * reading of the rule base, its rule weights and its variables.  Every
+     * change takes a new reading, and removing rules is itself a change, so
+     * the stamp never returns to an earlier value.
+     * @return modification stamp.
+     */
+    private long computeModificationStamp()
+    {
+        long stamp = this.version;
+
+        for (int i = 0; i < num_rules; i++)
+        {
+            stamp = Math.max(stamp, rules[i].getConclusion().getVersion());
+        }
+
+        Variable[] ivars = inputArray();
+        for (int i = 0; i < ivars.length; i++)
+        {
+            stamp = Math.max(stamp, ivars[i].getVersion());
+        }
+
+        OutputVariable[] ovars = outputArray();
+        for (int i = 0; i < ovars.length; i++)
+        {
+            stamp = Math.max(stamp, ovars[i].getVersion());
+        }
+
+        return stamp;
+    }
+
+    /**
+     * Selects indexed rule firing.  When indexed, evaluateRules() looks up
+     * the rules that can fire from the input terms with non-zero degree of
+     * membership, through an inverted index from terms to rules, and fires
+     * only those.  A rule is skipped only if its condition must aggregate to
+     * zero, so the crisp outputs are the same as when firing every rule,
+     * but skipped rules keep the activation level of their last firing.
+     * Rules whose condition cannot be guarded by plain terms (such as NOT
+     * conditions) are always fired.  The setting is also taken by compile().
+     * @param indexed_firing true for indexed firing.
+     */
+    public void setIndexedFiring(boolean indexed_firing)
+    {
+        this.indexed_firing = indexed_firing;
+        this.batch_compiled = null;
+    }
+
+    /**
+     * Returns whether indexed rule firing is selected.
+     * @return true if indexed.
+     */
+    public boolean isIndexedFiring()
+    {
+        return this.indexed_firing;
+    }
+
+    /**
+     * Selects incremental evaluation, for when only some inputs change
+     * between evaluations.  When incremental, evaluateRules() compares the
+     * degrees of membership of the input terms with those of the last
+     * evaluation, re-aggregates only the rules that depend on input
+     * variables that changed, and rebuilds and defuzzifies only the outputs
+     * whose rules changed activation level, from the cached activation
+     * levels of their rules.  The crisp outputs are the same as from a full
+     * evaluation.  The evaluation state is rebuilt whenever the modification
+     * stamp changes, so changes to rule weights, terms and output settings
+     * are seen.  Incremental evaluation takes precedence over indexed firing.
+     * @param incremental true for incremental evaluation.
+     */
+    public void setIncrementalEvaluation(boolean incremental)
+    {
+        this.incremental = incremental;
+        this.incremental_evaluator = null;
+    }
+
+    /**
+     * Returns whether incremental evaluation is selected.
+     * @return true if incremental.
+     */
+    public boolean isIncrementalEvaluation()
+    {
+        return this.incremental;
+    }
+
+    /**
+     * Attaches metrics to be recorded by each call to evaluateRules(), or
+     * detaches them.  Without metrics, evaluation does no recording.
+     * @param metrics metrics, or null for none.
+     */
+    public void setMetrics(RuleBaseMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics recorded by evaluateRules().
+     * @return metrics, or null for none.
+     */
+    public RuleBaseMetrics getMetrics()
+    {
+        return this.metrics;
     }
 
     /**
@@ -98,6 +352,9 @@ public class RuleBase
     public void setActivationMethod(ActivationMethod activation_method)
     {
         this.activation_method = activation_method;
+        this.kernel = AccumulationKernel.get(activation_method,
+            this.accumulation_method);
+        this.methodsChanged();
     }
 
     /**
@@ -107,34 +364,90 @@ public class RuleBase
     public void setAccumulationMethod(AccumulationMethod accumulation_method)
     {
         this.accumulation_method = accumulation_method;
+        this.kernel = AccumulationKernel.get(this.activation_method,
+            accumulation_method);
+        this.methodsChanged();
+    }
+
+    /**
+     * Returns the activation method.
+     * @return activation method.
+     */
+    public ActivationMethod getActivationMethod()
+    {
+        return this.activation_method;
+    }
+
+    /**
+     * Returns the accumulation method.
+     * @return accumulation method.
+     */
+    public AccumulationMethod getAccumulationMethod()
+    {
+        return this.accumulation_method;
     }
 
     /**
-     * Returns a java array containing the input variables.
+     * Returns a java array containing the rules, in the order they were
+     * added.
      * @return java array.
      */
-    public Variable[] getInputVariables()
+    public Rule[] getRules()
     {
-        Variable[] ivars = new Variable[input_variables.size()];
-        this.input_variables.toArray(ivars);
+        return Arrays.copyOf(this.rules, this.num_rules);
+    }
 
-        return ivars;
+    /**
+     * Returns a java array containing the input variables, in slot order.
+     * @return java array.
+     */
+    public Variable[] getInputVariables()
+    {
+        return inputArray().clone();
     }
 
     /**
-     * Returns a java array containing the output varaiables.
+     * Returns a java array containing the output varaiables, in slot order.
      * @return java array.
      */
     public OutputVariable[] getOutputVariables()
     {
-        OutputVariable[] ovars = new OutputVariable[output_variables.size()];
-        this.output_variables.toArray(ovars);
+        return outputArray().clone();
+    }
 
-        return ovars;
+    /**
+     * Returns the snapshot of the input variables, building it if needed.
+     * @return input variables.
+     */
+    private Variable[] inputArray()
+    {
+        if (this.input_array == null)
+        {
+            this.input_array =
+                input_variables.toArray(new Variable[input_variables.size()]);
+        }
+
+        return this.input_array;
     }
 
     /**
-     * Sets the And operator for the rule base.
+     * Returns the snapshot of the output variables, building it if needed.
+     * @return output variables.
+     */
+    private OutputVariable[] outputArray()
+    {
+        if (this.output_array == null)
+        {
+            this.output_array = output_variables.toArray(
+                new OutputVariable[output_variables.size()]);
+        }
+
+        return this.output_array;
+    }
+
+    /**
+     * Sets the And operator for the rule base, along with its dual Or
+     * operator.  The operators belong to this rule base only.
      * @param oper And operator.
      */
     public void setAndOperator(And.FuzzyAndOperator oper)
@@ -143,540 +456,147 @@ public class RuleBase
         {
             case MIN:
             {
-                And.setAndOperator(And.FuzzyAndOperator.MIN);
-                Or.setOrOperator(Or.FuzzyOrOperator.MAX);
+                this.and_operator = And.FuzzyAndOperator.MIN;
+                this.or_operator = Or.FuzzyOrOperator.MAX;
                 break;
             }
             case PROD:
             {
-                And.setAndOperator(And.FuzzyAndOperator.PROD);
-                Or.setOrOperator(Or.FuzzyOrOperator.ASUM);
+                this.and_operator = And.FuzzyAndOperator.PROD;
+                this.or_operator = Or.FuzzyOrOperator.ASUM;
                 break;
             }
             case BDIF:
             {
-                And.setAndOperator(And.FuzzyAndOperator.BDIF);
-                Or.setOrOperator(Or.FuzzyOrOperator.BSUM);
+                this.and_operator = And.FuzzyAndOperator.BDIF;
+                this.or_operator = Or.FuzzyOrOperator.BSUM;
                 break;
             }
             default:
             {
             }
         }
+        this.methodsChanged();
     }
 
     /**
-     * Reads from an fcl file and creates the rule base from that.
-     * @param fcl FCL file to read the rulebase from.
+     * Sets the Or operator for the rule base, overriding the dual chosen by
+     * setAndOperator().
+     * @param oper Or operator.
      */
-    public void readFCL(File fcl)
+    public void setOrOperator(Or.FuzzyOrOperator oper)
     {
-        ArrayList<String> lines = new ArrayList<String>();
-
-        this.file2ArrayList(fcl, lines);
-
-        //  Parse the arraylist.
-
-        Variable ivar = null;
-        OutputVariable ovar = null;
-        boolean bivar = false;
-        boolean bovar = false;
-        boolean bfuzz = false;
-        boolean bdefuzz = false;
-        boolean brule = false;
-        for (String l : lines)
-        {
-            if (l.contains("VAR_INPUT"))
-            {
-                bivar = true;
-            }
-            else if (l.contains("VAR_OUTPUT"))
-            {
-                bovar = true;
-            }
-            else if (l.contains("FUZZIFY") && !l.contains("DEFUZZIFY") &&
-                !l.contains("END"))
-            {
-                bfuzz = true;
-                String name = l.substring(l.indexOf("FUZZIFY") + 7, l.length()).
-                    trim();
-                ivar = this.getInputVariable(name);
-                if (ivar == null)
-                {
-                    logger.error("No input variable of name " + name + ", length: " +
-                        name.length());
-                }
-            }
-            else if (l.contains("DEFUZZIFY") && !l.contains("END"))
-            {
-                bdefuzz = true;
-                String name = l.substring(l.indexOf("DEFUZZIFY") + 9, l.length()).
-                    trim();
-                ovar = this.getOutputVariable(name);
-                if (ovar == null)
-                {
-                    logger.error("No output variable of name " + name);
-                }
-            }
-            else if (l.contains("RULEBLOCK"))
-            {
-                brule = true;
-            }
-            else if (bivar)
-            {
-                if (l.contains("END_VAR"))
-                {
-                    bivar = false;
-                }
-                else
-                {
-                    String sub = l.trim();
-                    ivar =
-                        new Variable(sub.substring(0, sub.indexOf(":")).trim());
-                    this.addInputVariable(ivar);
-                }
-            }
-            else if (bovar)
-            {
-                if (l.contains("END_VAR"))
-                {
-                    bovar = false;
-                }
-                else
-                {
-                    String sub = l.trim();
-                    ovar = new OutputVariable(sub.substring(0, sub.indexOf(":")).
-                        trim());
-                    this.addOutputVariable(ovar);
-                }
-            }
-            else if (bfuzz)
-            {
-                if (l.trim().startsWith("TERM"))
-                {
-                    String name = l.substring(l.indexOf("TERM") + 4,
-                        l.indexOf(":=")).trim();
-                    MembershipFunction term = new MembershipFunction(name);
-
-                    //  Strip off datapoints and add to term.
-                    int i = l.indexOf(":=") + 2;
-                    do
-                    {
-                        String point = l.substring(l.indexOf("(", i) + 1,
-                            l.indexOf(")", i)).trim();
-                        String[] coords = point.split(",");
-                        term.addDataPoint(Double.parseDouble(coords[0].trim()),
-                            Double.parseDouble(coords[1].trim()));
-
-                        int istart = l.indexOf(")", i) + 1;
-                        int iend = l.length();
-                        if (istart < 0 || istart > iend)
-                        {
-                            break;
-                        }
-
-                        l = l.substring(istart, iend);
-                        i = 0;
-                    }
-                    while (!l.equals(";"));
-
-                    if (ivar != null)
-                    {
-                        ivar.addTerm(term);
-                    }
-                }
-                else if (l.startsWith("END_FUZZIFY"))
-                {
-                    bfuzz = false;
-                    ivar = null;
-                }
-            }
-            else if (bdefuzz)
-            {
-                if (l.trim().startsWith("TERM"))
-                {
-                    String name = l.substring(l.indexOf("TERM") + 4,
-                        l.indexOf(":=")).trim();
-                    MembershipFunction term = new MembershipFunction(name);
-
-                    //  Strip off datapoints and add to term.
-                    int i = l.indexOf(":=") + 2;
-                    do
-                    {
-                        String point = l.substring(l.indexOf("(", i) + 1,
-                            l.indexOf(")", i)).trim();
-                        String[] coords = point.split(",");
-                        term.addDataPoint(Double.parseDouble(coords[0].trim()),
-                            Double.parseDouble(coords[1].trim()));
-
-                        int istart = l.indexOf(")", i) + 1;
-                        int iend = l.length();
-                        if (istart < 0 || istart > iend)
-                        {
-                            break;
-                        }
-
-                        l = l.substring(istart, iend);
-                        i = 0;
-                    }
-                    while (!l.equals(";"));
-
-                    if (ovar != null)
-                    {
-                        ovar.addTerm(term);
-
-                        //  Do default discretize
-                        ovar.discretize();
-                    }
-                }
-                else if (l.trim().startsWith("METHOD"))
-                {
-                    if (l.contains("COG") && !l.contains("COGS"))
-                    {
-                        ovar.setDefuzzificationMethod(OutputVariable.DefuzzificationMethod.COG);
-                    }
-                    else if (l.contains("COGS"))
-                    {
-                        ovar.setDefuzzificationMethod(OutputVariable.DefuzzificationMethod.COGS);
-                    }
-                    else if (l.contains("COA"))
-                    {
-                        ovar.setDefuzzificationMethod(OutputVariable.DefuzzificationMethod.COA);
-                    }
-                }
-                else if (l.trim().startsWith("DEFAULT"))
-                {
-                    String value = l.substring(l.indexOf(":=") + 2,
-                        l.indexOf(";")).trim();
-                    ovar.setDefaultValue(Double.parseDouble(value));
-                }
-                else if (l.startsWith("END_DEFUZZIFY"))
-                {
-                    bdefuzz = false;
-                    ovar = null;
-                }
-            }
-            else if (brule)
-            {
-                if (l.trim().startsWith("AND"))
-                {
-                    if (l.contains("MIN"))
-                    {
-                        this.setAndOperator(And.FuzzyAndOperator.MIN);
-                    }
-                    else if (l.contains("PROD"))
-                    {
-                        this.setAndOperator(And.FuzzyAndOperator.PROD);
-                    }
-                    else if (l.contains("BDIF"))
-                    {
-                        this.setAndOperator(And.FuzzyAndOperator.BDIF);
-                    }
-                }
-                else if (l.trim().startsWith("ACT"))
-                {
-                    if (l.contains("MIN"))
-                    {
-                        this.setActivationMethod(ActivationMethod.MIN);
-                    }
-                    else if (l.contains("PROD"))
-                    {
-                        this.setActivationMethod(ActivationMethod.PROD);
-                    }
-                }
-                else if (l.trim().startsWith("ACCU"))
-                {
-                    if (l.contains("MAX"))
-                    {
-                        this.setAccumulationMethod(AccumulationMethod.MAX);
-                    }
-                    else if (l.contains("BSUM"))
-                    {
-                        this.setAccumulationMethod(AccumulationMethod.BSUM);
-                    }
-                }
-                else if (l.trim().startsWith("RULE"))
-                {
-                    String condition = l.substring(l.indexOf("IF") + 2,
-                        l.indexOf("THEN")).trim();
-                    String conclusion = l.substring(l.indexOf("THEN") + 4,
-                        l.indexOf(";")).trim();
-
-                    //  Parse the condition string
-                    String[] atoms = condition.split("AND");
-                    ArrayList<SubCondition> simples =
-                        new ArrayList<SubCondition>();
-                    for (String atom : atoms)
-                    {
-                        String var_name = atom.substring(0, atom.indexOf("IS")).
-                            trim();
-                        ivar = this.getInputVariable(var_name);
-                        if (ivar == null)
-                        {
-                            logger.error("No input variable of name " + var_name);
-                        }
-
-                        boolean bnot = false;
-                        String term_name;
-                        if (atom.contains("NOT"))
-                        {
-                            bnot = true;
-                            term_name = atom.substring(atom.indexOf("NOT") + 3,
-                                atom.length()).trim();
-                        }
-                        else
-                        {
-                            term_name = atom.substring(atom.indexOf("IS") + 2,
-                                atom.length()).trim();
-                        }
-
-                        int term_index = ivar.getTermIndex(term_name);
-
-                        SubCondition s =
-                            new SubCondition(ivar, term_index, bnot);
-                        simples.add(s);
-                    }
-
-                    ICondition root = null;
-                    if (simples.size() == 1)
-                    {
-                        root = simples.get(0);
-                    }
-                    else
-                    {
-                        And leaf = new And(simples.get(simples.size() - 1),
-                            simples.get(simples.size() - 2));
-                        And and = leaf;
-
-                        //  # of ands always # simples-1
-                        for (int i = simples.size() - 3; i >= 0; i--)
-                        {
-                            and = new And(simples.get(i), and);
-                        }
-                        root = and;
-                    }
-
-                    //  Parse the conclusion string
-                    String var_name = conclusion.substring(0,
-                        conclusion.indexOf("IS")).trim();
-                    ovar = this.getOutputVariable(var_name);
-                    if (ovar == null)
-                    {
-                        logger.error("No output variable of name " + var_name);
-                    }
-
-                    String term_name;
-                    double weight = 1.;
-
-                    if (conclusion.contains("WITH"))
-                    {
-                        term_name = conclusion.substring(conclusion.indexOf("IS") + 2, conclusion.indexOf("WITH")).
-                            trim();
-                        String w = conclusion.substring(conclusion.indexOf("WITH") + 6, conclusion.length()).
-                            trim();
-                        weight = Double.parseDouble(w);
-                    }
-                    else
-                    {
-                        term_name = conclusion.substring(conclusion.indexOf("IS") + 2, conclusion.length()).
-                            trim();
-                    }
-
-                    int term_index = ovar.getTermIndex(term_name);
-
-                    Conclusion conc = new Conclusion(ovar, term_index, weight);
-
-                    //  Make the rule and add to rule base.
-                    Rule rule = new Rule(root, conc);
-                    this.addRule(rule);
-                }
-                else if (l.startsWith("END_RULEBLOCK"))
-                {
-                    brule = false;
-                }
-            }
-        }
+        this.or_operator = oper;
+        this.methodsChanged();
     }
 
     /**
-     * Writes the FCL file.
-     * @param fcl a File object in which to write the fuzzy control language description of the rule base.
+     * Returns the And operator of the rule base.
+     * @return And operator.
      */
-    public void writeFCL(File fcl)
+    public And.FuzzyAndOperator getAndOperator()
     {
-        ArrayList<String> lines = new ArrayList<String>();
-
-        //  Build up the array list here.
-        lines.add("FUNCTION_BLOCK");
-
-        //	Variables
-        lines.add("VAR_INPUT");
-
-        for (Variable ivar : input_variables)
-        {
-            String str = "\t" + ivar.getName();
-            str += " :\tREAL;";
-            lines.add(str);
-        }
-
-        lines.add("END_VAR");
+        return this.and_operator;
+    }
 
-        lines.add("VAR_OUTPUT");
+    /**
+     * Returns the Or operator of the rule base.
+     * @return Or operator.
+     */
+    public Or.FuzzyOrOperator getOrOperator()
+    {
+        return this.or_operator;
+    }
 
-        for (Variable ovar : output_variables)
+    /**
+     * Reads from an fcl file and creates the rule base from that.  Errors
+     * are logged; what was read before an error stays in the rule base.
+     * @param fcl FCL file to read the rulebase from.
+     */
+    public void readFCL(File fcl)
+    {
+        try (InputStream in = new FileInputStream(fcl))
         {
-            String str = "\t" + ovar.getName();
-            str += " :\tREAL;";
-            lines.add(str);
+            this.readFCL(in);
         }
-
-        lines.add("END_VAR");
-
-        for (Variable ivar : input_variables)
+        catch (FileNotFoundException e)
         {
-            String str = "FUZZIFY " + ivar.getName();
-
-            lines.add(str);
-
-            for (MembershipFunction term : ivar.getTerms())
-            {
-                str = "\tTERM " + term.getName() + " :=";
-
-                for (int j = 0; j < term.getNumberOfDataPoints(); j++)
-                {
-                    DataPoint p = term.getDataPoint(j);
-
-                    str += " (";
-                    str += p.getX();
-                    str += ", ";
-                    str += p.getY();
-                    str += ")";
-                }
-
-                str += ";";
-                lines.add(str);
-            }
-
-            lines.add("END_FUZZIFY");
+            logger.error("ERROR, FileNotFoundException - Could not open file: " +
+                fcl);
         }
-
-        for (OutputVariable ovar : output_variables)
+        catch (IOException e)
         {
-            String str = "DEFUZZIFY " + ovar.getName();
-
-            lines.add(str);
-
-            for (MembershipFunction term : ovar.getTerms())
-            {
-                str = "\tTERM " + term.getName() + " :=";
-
-                for (int j = 0; j < term.getNumberOfDataPoints(); j++)
-                {
-                    DataPoint p = term.getDataPoint(j);
-
-                    str += " (";
-                    str += p.getX();
-                    str += ", ";
-                    str += p.getY();
-                    str += ")";
-                }
-
-                str += ";";
-                lines.add(str);
-            }
-
-            switch (ovar.getDefuzzificationMethod())
-            {
-                case COG:
-                    lines.add("\tMETHOD : COG;");
-                    break;
-                case COGS:
-                    lines.add("\tMETHOD : COGS;");
-                    break;
-                case COA:
-                    lines.add("\tMETHOD : COA;");
-                    break;
-                default:
-            }
-
-            str = "\tDEFAULT := ";
-            str += ovar.getDefaultValue();
-            str += ";";
-            lines.add(str);
-
-            lines.add("END_DEFUZZIFY");
+            logger.error("ERROR, could not read FCL file " + fcl + ": " +
+                e.getMessage());
         }
+    }
 
-        //	Rule block
-        lines.add("RULEBLOCK");
-
-        switch (And.getAndOperator())
-        {
-            case MIN:
-            {
-                lines.add("\tAND : MIN;");
-                break;
-            }
-            case PROD:
-            {
-                lines.add("\tAND : PROD;");
-                break;
-            }
-            case BDIF:
-            {
-                lines.add("\tAND : BDIF;");
-                break;
-            }
-            default:
-            {
-            }
-        }
+    /**
+     * Reads FCL text in UTF-8 from the stream and creates the rule base from
+     * that.  The stream is read to its end but not closed.
+     * @param in stream to read the rulebase from.
+     * @throws IOException if the stream cannot be read.
+     * @throws FCLParseException if the text is not valid FCL.
+     */
+    public void readFCL(InputStream in) throws IOException
+    {
+        this.readFCL(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
 
-        switch (this.activation_method)
-        {
-            case MIN:
-            {
-                lines.add("\tACT : MIN;");
-                break;
-            }
-            case PROD:
-            {
-                lines.add("\tACT : PROD;");
-                break;
-            }
-            default:
-            {
-            }
-        }
+    /**
+     * Reads FCL text from the reader, in a single pass, and creates the rule
+     * base from that.  The reader is read to its end but not closed.
+     * Variables, terms and rules are added as they are read, so what was
+     * read before an error stays in the rule base.
+     * @param reader reader to read the rulebase from.
+     * @throws IOException if the reader cannot be read.
+     * @throws FCLParseException if the text is not valid FCL, giving the
+     * line and column of the problem.
+     */
+    public void readFCL(Reader reader) throws IOException
+    {
+        new FCLParser(this, reader).parse();
+    }
 
-        switch (this.accumulation_method)
+    /**
+     * Writes the FCL file.  Errors are logged.
+     * @param fcl a File object in which to write the fuzzy control language description of the rule base.
+     */
+    public void writeFCL(File fcl)
+    {
+        try (OutputStream out = new FileOutputStream(fcl))
         {
-            case MAX:
-            {
-                lines.add("\tACCU : MAX;");
-                break;
-            }
-            case BSUM:
-            {
-                lines.add("\tACCU : BSUM;");
-                break;
-            }
-            default:
-            {
-            }
+            this.writeFCL(out);
         }
-
-        int i = 1;
-        for (Rule rule : rules)
+        catch (IOException e)
         {
-            lines.add(rule.writeFCL(i));
-            i++;
+            logger.error("ERROR, IOException - Could not write file: " + fcl);
+            e.printStackTrace();
         }
+    }
 
-        lines.add("END_RULEBLOCK");
-        lines.add("END_FUNCTION_BLOCK");
+    /**
+     * Writes the fuzzy control language description of the rule base to the
+     * stream, in UTF-8.  The stream is flushed but not closed.
+     * @param out stream to write to.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void writeFCL(OutputStream out) throws IOException
+    {
+        this.writeFCL(new BufferedWriter(new OutputStreamWriter(out,
+            StandardCharsets.UTF_8)));
+    }
 
-        this.ArrayList2file(fcl, lines);
+    /**
+     * Writes the fuzzy control language description of the rule base to the
+     * writer, a line at a time, in memory that does not grow with the number
+     * of rules.  The writer is flushed but not closed.
+     * @param writer writer to write to.
+     * @throws IOException if the writer cannot be written.
+     */
+    public void writeFCL(Writer writer) throws IOException
+    {
+        new FCLWriter(writer).write(this);
     }
 
     /**
@@ -760,12 +680,48 @@ public class RuleBase
     }
 
     /**
-     * Adds an input variable to the rule base.
+     * Adds an input variable to the rule base, in the next input slot.
+     * Adding a variable that is already in the rule base does nothing.  If
+     * another input variable has the same name, lookups by name find the
+     * first one added.
      * @param ivar Variable object.
      */
     public void addInputVariable(Variable ivar)
     {
+        if (this.input_variables.contains(ivar))
+        {
+            return;
+        }
+
+        if (!this.input_slots.containsKey(ivar.getName()))
+        {
+            this.input_slots.put(ivar.getName(), input_variables.size());
+        }
         this.input_variables.add(ivar);
+        this.input_array = null;
+        this.invalidate();
+    }
+
+    /**
+     * Returns the slot of the named input variable.
+     * @param name name of the input variable.
+     * @return slot, or -1 if there is no such input variable.
+     */
+    public int getInputSlot(String name)
+    {
+        Integer slot = this.input_slots.get(name);
+
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Returns the input variable in the slot.
+     * @param slot slot of the input variable.
+     * @return input variable.
+     */
+    public Variable getInputVariable(int slot)
+    {
+        return this.input_variables.get(slot);
     }
 
     /**
@@ -775,15 +731,31 @@ public class RuleBase
      */
     public Variable getInputVariable(String name)
     {
-        for (Variable ivar : input_variables)
-        {
-            if (name.equals(ivar.getName()))
-            {
-                return ivar;
-            }
-        }
+        int slot = getInputSlot(name);
 
-        return null;
+        return slot >= 0 ? this.input_variables.get(slot) : null;
+    }
+
+    /**
+     * Returns the slot of the named output variable.
+     * @param name name of the output variable.
+     * @return slot, or -1 if there is no such output variable.
+     */
+    public int getOutputSlot(String name)
+    {
+        Integer slot = this.output_slots.get(name);
+
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Returns the output variable in the slot.
+     * @param slot slot of the output variable.
+     * @return output variable.
+     */
+    public OutputVariable getOutputVariable(int slot)
+    {
+        return this.output_variables.get(slot);
     }
 
     /**
@@ -793,56 +765,435 @@ public class RuleBase
      */
     public OutputVariable getOutputVariable(String name)
     {
-        for (OutputVariable ovar : output_variables)
-        {
-            if (name.equals(ovar.getName()))
-            {
-                return ovar;
-            }
-        }
+        int slot = getOutputSlot(name);
 
-        return null;
+        return slot >= 0 ? this.output_variables.get(slot) : null;
     }
 
     /**
-     * Adds an output variable to the rule base.
+     * Adds an output variable to the rule base, in the next output slot.
+     * Adding a variable that is already in the rule base does nothing.  If
+     * another output variable has the same name, lookups by name find the
+     * first one added.
      * @param ovar OutputVariable object.
      */
     public void addOutputVariable(OutputVariable ovar)
     {
+        if (this.output_variables.contains(ovar))
+        {
+            return;
+        }
+
+        if (!this.output_slots.containsKey(ovar.getName()))
+        {
+            this.output_slots.put(ovar.getName(), output_variables.size());
+        }
         this.output_variables.add(ovar);
+        this.output_array = null;
+        this.invalidate();
     }
 
     /**
-     * Adds a rule to the rule base.
+     * Adds a rule to the rule base, after the rules already added.  Rules
+     * are fired in the order they were added.  Adding a rule that is
+     * already in the rule base does nothing; distinct rules with the same
+     * condition and conclusion are all added.
      * @param rule Rule object.
      */
     public void addRule(Rule rule)
     {
-        this.rules.add(rule);
+        if (this.rule_set.put(rule, rule) != null)
+        {
+            return;
+        }
+
+        if (this.num_rules == this.rules.length)
+        {
+            this.rules = Arrays.copyOf(this.rules, 2 * this.num_rules);
+        }
+        this.rules[num_rules++] = rule;
+        this.invalidate();
     }
 
     /**
      * Fires all rules.  The sequence of operations is:
      * Fuzzify(), Infer(), Defuzzify().
+     * Once the rule base has been evaluated, later evaluations do not
+     * allocate, as long as no rules or variables are added.
+     * If metrics are attached, the evaluation is recorded in them.
      */
     public void evaluateRules()
     {
+        RuleBaseMetrics recorder = this.metrics;
+        if (recorder == null)
+        {
+            evaluate();
+            return;
+        }
+
+        long start = System.nanoTime();
+        evaluate();
+        long elapsed = System.nanoTime() - start;
+
+        recordMetrics(recorder, elapsed);
+    }
+
+    /**
+     * Evaluates the rules by the selected method.
+     */
+    private void evaluate()
+    {
+        if (this.incremental)
+        {
+            //  Output settings and terms change outside the rule base, so
+            //  their changes are found through the stamp, which costs one
+            //  read of the modification clock while nothing changes.
+            long stamp = getModificationStamp();
+            if (this.incremental_evaluator == null ||
+                stamp != this.incremental_stamp)
+            {
+                this.incremental_evaluator = new IncrementalEvaluator(getRules(),
+                    getInputVariables(), getOutputVariables());
+                this.incremental_stamp = stamp;
+            }
+
+            incremental_evaluator.evaluate(this.kernel, this.and_operator,
+                this.or_operator);
+            return;
+        }
+
+        OutputVariable[] ovars = outputArray();
+
         //	Reset the discretes of all output variables.
-        for (OutputVariable ovar : output_variables)
+        for (int i = 0; i < ovars.length; i++)
+        {
+            ovars[i].resetDiscretes();
+        }
+
+        if (this.indexed_firing)
+        {
+            fireIndexedRules();
+        }
+        else
+        {
+            for (int i = 0; i < num_rules; i++)
+            {
+                rules[i].infer(this.kernel, this.and_operator,
+                    this.or_operator);
+            }
+        }
+
+        for (int i = 0; i < ovars.length; i++)
         {
-            ovar.resetDiscretes();
+            ovars[i].defuzzify();
         }
+    }
 
-        for (Rule rule : rules)
+    /**
+     * Records the last evaluation in the metrics.
+     * @param recorder metrics.
+     * @param elapsed latency in nanoseconds.
+     */
+    private void recordMetrics(RuleBaseMetrics recorder, long elapsed)
+    {
+        int fired = 0;
+        if (this.indexed_firing && !this.incremental)
+        {
+            //  Rules not selected keep the activation level of their last
+            //  firing, but did not fire.
+            for (int k = 0; k < num_candidates; k++)
+            {
+                int i = candidates[k];
+                fired += recorder.recordRule(i,
+                    activationLevel(indexed_rules[i]));
+            }
+        }
+        else
         {
-            rule.infer(this.activation_method, this.accumulation_method);
+            for (int i = 0; i < num_rules; i++)
+            {
+                fired += recorder.recordRule(i, activationLevel(rules[i]));
+            }
         }
 
-        for (OutputVariable ovar : output_variables)
+        OutputVariable[] ovars = outputArray();
+        for (int o = 0; o < ovars.length; o++)
         {
-            ovar.defuzzify();
+            if (ovars[o].isDefaulted())
+            {
+                recorder.recordDefault(o);
+            }
         }
+
+        recorder.recordEvaluation(elapsed, fired);
+    }
+
+    /**
+     * Returns the activation level of the rule from its last firing.
+     * @param rule rule.
+     * @return activation level, weight included, or 0 if the rule has no
+     * conclusion.
+     */
+    private static double activationLevel(Rule rule)
+    {
+        Conclusion conclusion = rule.getConclusion();
+
+        return conclusion != null ? conclusion.getActivationLevel() : 0.;
+    }
+
+    /**
+     * Fires the rules that the rule index selects from the current degrees
+     * of membership of the input terms.
+     */
+    private void fireIndexedRules()
+    {
+        if (this.rule_index == null)
+        {
+            buildRuleIndex();
+        }
+
+        int d = 0;
+        for (int v = 0; v < indexed_variables.length; v++)
+        {
+            Variable ivar = indexed_variables[v];
+            int nterms = indexed_term_start[v + 1] - indexed_term_start[v];
+            for (int t = 0; t < nterms; t++)
+            {
+                indexed_dom[d++] = ivar.getTerm(t).getDOM();
+            }
+        }
+
+        int n = rule_index.select(indexed_dom, candidates, seen);
+        this.num_candidates = n;
+        for (int i = 0; i < n; i++)
+        {
+            indexed_rules[candidates[i]].infer(this.kernel, this.and_operator,
+                this.or_operator);
+        }
+    }
+
+    /**
+     * Builds the rule index over the current rules and input variables.
+     */
+    private void buildRuleIndex()
+    {
+        this.indexed_rules = getRules();
+        this.indexed_variables = getInputVariables();
+        this.indexed_term_start = new int[indexed_variables.length + 1];
+        for (int v = 0; v < indexed_variables.length; v++)
+        {
+            indexed_term_start[v + 1] = indexed_term_start[v] +
+                indexed_variables[v].getTerms().length;
+        }
+
+        this.indexed_dom = new double[indexed_term_start[indexed_variables.length]];
+        this.candidates = new int[indexed_rules.length];
+        this.seen = new boolean[indexed_rules.length];
+        this.rule_index = new RuleIndex(indexed_rules, indexed_variables,
+            indexed_term_start);
+    }
+
+    /**
+     * Compiles the rule base into a flat, array-backed inference engine.  The
+     * engine is a snapshot:  changes made to the rule base, its variables or
+     * their terms after compilation are not seen by it, so compile again
+     * after changing any of them (including re-discretizing outputs).
+     * The compiled rule base is read-only and may be shared between threads,
+     * each evaluating with its own EvalContext.
+     * @return compiled rule base.
+     */
+    public CompiledRuleBase compile()
+    {
+        return new CompiledRuleBase(this);
+    }
+
+    /**
+     * Returns a deep copy of the rule base:  new variables with copies of
+     * their terms and settings, and new rules concluding on them, along
+     * with the same methods, operators and firing options.  Discretized
+     * output variables are discretized again.  Degrees of membership,
+     * activation levels and crisp outputs are not copied, nor are metrics.
+     * The copy shares nothing with this rule base, so the two may be used
+     * on different threads.
+     * @return copy of the rule base.
+     */
+    public RuleBase copy()
+    {
+        RuleBase copy = new RuleBase();
+        copy.setActivationMethod(this.activation_method);
+        copy.setAccumulationMethod(this.accumulation_method);
+        copy.setAndOperator(this.and_operator);
+        copy.setOrOperator(this.or_operator);
+        copy.setIndexedFiring(this.indexed_firing);
+        copy.setIncrementalEvaluation(this.incremental);
+
+        //  Copies of the variables, by original.
+        IdentityHashMap<Variable, Variable> copies =
+            new IdentityHashMap<Variable, Variable>();
+        for (Variable ivar : inputArray())
+        {
+            Variable ivar_copy = new Variable(ivar.getName());
+            copyTerms(ivar, ivar_copy);
+            copies.put(ivar, ivar_copy);
+            copy.addInputVariable(ivar_copy);
+        }
+
+        for (OutputVariable ovar : outputArray())
+        {
+            OutputVariable ovar_copy = new OutputVariable(ovar.getName());
+            copyTerms(ovar, ovar_copy);
+            ovar_copy.setNumDiscretes(ovar.getNumDiscretes());
+            ovar_copy.setDefuzzificationMethod(ovar.getDefuzzificationMethod());
+            ovar_copy.setDefaultValue(ovar.getDefaultValue());
+            ovar_copy.setAnalyticDefuzzification(
+                ovar.isAnalyticDefuzzification());
+            if (ovar.getDiscreteValues().length > 0)
+            {
+                ovar_copy.discretize();
+            }
+            copies.put(ovar, ovar_copy);
+            copy.addOutputVariable(ovar_copy);
+        }
+
+        for (int i = 0; i < num_rules; i++)
+        {
+            Conclusion conc = rules[i].getConclusion();
+            Variable ovar_copy = copies.get(conc.getOutputVariable());
+            if (!(ovar_copy instanceof OutputVariable))
+            {
+                throw new IllegalStateException("Rule concludes on " +
+                    "an output variable not in the rule base: " +
+                    conc.getOutputVariable().getName());
+            }
+
+            copy.addRule(new Rule(copyCondition(rules[i].getCondition(), copies),
+                new Conclusion((OutputVariable) ovar_copy, conc.getTermIndex(),
+                conc.getWeight())));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Adds copies of the terms of one variable to another, along with its
+     * lookup resolution.
+     * @param from variable to copy from.
+     * @param to variable to copy to.
+     */
+    private static void copyTerms(Variable from, Variable to)
+    {
+        for (MembershipFunction term : from.getTerms())
+        {
+            MembershipFunction term_copy = new MembershipFunction(term.getName());
+            for (int i = 0; i < term.getNumberOfDataPoints(); i++)
+            {
+                DataPoint p = term.getDataPoint(i);
+                term_copy.addDataPoint(p.getX(), p.getY());
+            }
+            to.addTerm(term_copy);
+        }
+
+        if (from.getLookupResolution() > 0)
+        {
+            to.setLookupResolution(from.getLookupResolution());
+        }
+    }
+
+    /**
+     * Returns a copy of the condition referring to the copies of its
+     * variables.
+     * @param condition condition to copy.
+     * @param copies copies of the variables, by original.
+     * @return copy of the condition.
+     */
+    private static ICondition copyCondition(ICondition condition,
+        IdentityHashMap<Variable, Variable> copies)
+    {
+        if (condition instanceof SubCondition)
+        {
+            SubCondition sub = (SubCondition) condition;
+            Variable ivar_copy = copies.get(sub.getVariable());
+            if (ivar_copy == null)
+            {
+                throw new IllegalStateException("Rule condition refers to " +
+                    "an input variable not in the rule base: " +
+                    sub.getVariable().getName());
+            }
+
+            return new SubCondition(ivar_copy, sub.getTermIndex(), sub.isNot());
+        }
+        else if (condition instanceof And)
+        {
+            And and = (And) condition;
+            return new And(copyCondition(and.getCondition1(), copies),
+                copyCondition(and.getCondition2(), copies));
+        }
+        else if (condition instanceof Or)
+        {
+            Or or = (Or) condition;
+            return new Or(copyCondition(or.getCondition1(), copies),
+                copyCondition(or.getCondition2(), copies));
+        }
+
+        throw new IllegalStateException("Cannot copy condition of type " +
+            condition.getClass().getName());
+    }
+
+    /**
+     * Evaluates the rule base for many samples in one call.  Inputs and
+     * outputs are given column by column, in slot order:
+     * input_columns[i][s] is the crisp value of input i for sample s, and
+     * output_columns[o][s] receives the crisp value of output o.  Results
+     * are the same as fuzzifying and calling evaluateRules() for each
+     * sample.  The compiled rule base and its context are kept for the next
+     * batch, and compiled again only when the modification stamp changes,
+     * so batches of a rule base that does not change are not compiled
+     * again.  This does not update the degrees of membership or crisp
+     * outputs held by the variables.
+     * @param input_columns crisp inputs, one column per input variable.
+     * @param output_columns receives the crisp outputs, one column per
+     * output variable.
+     */
+    public void evaluateBatch(double[][] input_columns,
+        double[][] output_columns)
+    {
+        batchCompiled().evaluateBatch(input_columns, output_columns,
+            this.batch_context);
+    }
+
+    /**
+     * Evaluates the rule base for many samples in one call, splitting the
+     * samples into chunks evaluated in parallel on the pool.  Columns are as
+     * for evaluateBatch(double[][], double[][]), and so are the results.
+     * @param input_columns crisp inputs, one column per input variable.
+     * @param output_columns receives the crisp outputs, one column per
+     * output variable.
+     * @param pool pool to run the evaluation on.
+     * @param chunk_size largest number of samples evaluated by one task.
+     */
+    public void evaluateBatch(double[][] input_columns,
+        double[][] output_columns, ForkJoinPool pool, int chunk_size)
+    {
+        batchCompiled().evaluateBatch(input_columns, output_columns, pool,
+            chunk_size);
+    }
+
+    /**
+     * Returns the compiled rule base for evaluateBatch(), compiling it
+     * again if the rule base changed since it was compiled.
+     * @return compiled rule base.
+     */
+    private CompiledRuleBase batchCompiled()
+    {
+        long stamp = getModificationStamp();
+        if (this.batch_compiled == null || stamp != this.batch_stamp)
+        {
+            this.batch_compiled = this.compile();
+            this.batch_context = this.batch_compiled.createContext();
+            this.batch_stamp = stamp;
+        }
+
+        return this.batch_compiled;
     }
 
     /**
@@ -852,15 +1203,23 @@ public class RuleBase
      */
     public void fuzzifyVariable(String variable_name, double value)
     {
-        for (Variable var : input_variables)
+        int slot = getInputSlot(variable_name);
+        if (slot >= 0)
         {
-            if (var.getName().equals(variable_name))
-            {
-                var.fuzzify(value);
-            }
+            this.input_variables.get(slot).fuzzify(value);
         }
     }
 
+    /**
+     * Fuzzifies the input variable in the slot.
+     * @param slot slot of the input variable.
+     * @param value crisp input value.
+     */
+    public void fuzzify(int slot, double value)
+    {
+        this.input_variables.get(slot).fuzzify(value);
+    }
+
     /**
      * Fuzzifies the specified variable.
      * @param variable Variable object.
@@ -891,16 +1250,24 @@ public class RuleBase
      */
     public double getCrispOutput(String variable_name)
     {
-        double crisp = 0.;
+        int slot = getOutputSlot(variable_name);
 
-        for (OutputVariable var : output_variables)
+        if (slot < 0)
         {
-            if (var.getName().equals(variable_name))
-            {
-                crisp = var.getCrispOutput();
-            }
+            return 0.;
         }
 
-        return crisp;
+        return this.output_variables.get(slot).getCrispOutput();
+    }
+
+    /**
+     * Returns the crisp output of the output variable in the slot, resulting
+     * from evaluating the rule base.
+     * @param slot slot of the output variable.
+     * @return crisp output value.
+     */
+    public double getCrispOutput(int slot)
+    {
+        return this.output_variables.get(slot).getCrispOutput();
     }
 }
@@ -0,0 +1,339 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the evaluations of a rule base, for watching a controller in
+ * service.  Attach them with RuleBase.setMetrics(); each call to
+ * evaluateRules() then records:
+ * - the evaluation, and its latency in a histogram of powers of two of
+ * nanoseconds,
+ * - the number of rules fired, that is with a non-zero activation level,
+ * - for each rule, whether it fired and its activation level, weight
+ * included,
+ * - for each output variable, whether it fell back to its default value
+ * because nothing was activated.
+ *
+ * Rules and outputs are counted by their position in the rule base, so
+ * metrics should be attached to rule bases with the same rules and
+ * outputs.  Rules and outputs beyond those counted when the metrics were
+ * created are not counted.  The counters are striped adders, so one set of
+ * metrics may be shared by rule bases evaluated on different threads
+ * without contention.  Readings taken while evaluations are running are
+ * not a consistent snapshot.  Evaluations of compiled rule bases, batches
+ * and control surfaces are not recorded.
+ *
+ * @author Jeff Ridder
+ */
+public class RuleBaseMetrics
+{
+    /** Number of latency buckets.  Bucket b counts latencies below 2^b ns. */
+    public static final int LATENCY_BUCKETS = 64;
+
+    private final LongAdder evaluations = new LongAdder();
+
+    private final LongAdder latency_total = new LongAdder();
+
+    private final LongAdder[] latency_counts = new LongAdder[LATENCY_BUCKETS];
+
+    private final LongAdder rules_fired = new LongAdder();
+
+    private final LongAdder[] rule_fires;
+
+    private final DoubleAdder[] rule_activations;
+
+    private final LongAdder[] output_defaults;
+
+    /**
+     * Creates a new instance of RuleBaseMetrics sized for the rules and
+     * output variables of the rule base.
+     * @param rule_base rule base.
+     */
+    public RuleBaseMetrics(RuleBase rule_base)
+    {
+        this(rule_base.getRules().length,
+            rule_base.getOutputVariables().length);
+    }
+
+    /**
+     * Creates a new instance of RuleBaseMetrics.
+     * @param num_rules number of rules counted.
+     * @param num_outputs number of output variables counted.
+     */
+    public RuleBaseMetrics(int num_rules, int num_outputs)
+    {
+        if (num_rules < 0 || num_outputs < 0)
+        {
+            throw new IllegalArgumentException("Negative size: " + num_rules +
+                " rules, " + num_outputs + " outputs");
+        }
+
+        for (int b = 0; b < LATENCY_BUCKETS; b++)
+        {
+            latency_counts[b] = new LongAdder();
+        }
+
+        this.rule_fires = new LongAdder[num_rules];
+        this.rule_activations = new DoubleAdder[num_rules];
+        for (int i = 0; i < num_rules; i++)
+        {
+            rule_fires[i] = new LongAdder();
+            rule_activations[i] = new DoubleAdder();
+        }
+
+        this.output_defaults = new LongAdder[num_outputs];
+        for (int o = 0; o < num_outputs; o++)
+        {
+            output_defaults[o] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the activation level of a rule in an evaluation.  Rules that
+     * did not fire need not be recorded.
+     * @param rule index of the rule.
+     * @param level activation level, weight included.
+     * @return 1 if the rule fired, otherwise 0.
+     */
+    int recordRule(int rule, double level)
+    {
+        if (!(level > 0.))
+        {
+            return 0;
+        }
+
+        if (rule < rule_fires.length)
+        {
+            rule_fires[rule].increment();
+            rule_activations[rule].add(level);
+        }
+
+        return 1;
+    }
+
+    /**
+     * Records that an output fell back to its default value.
+     * @param slot slot of the output variable.
+     */
+    void recordDefault(int slot)
+    {
+        if (slot < output_defaults.length)
+        {
+            output_defaults[slot].increment();
+        }
+    }
+
+    /**
+     * Records an evaluation.
+     * @param nanos latency in nanoseconds.
+     * @param fired number of rules fired.
+     */
+    void recordEvaluation(long nanos, int fired)
+    {
+        evaluations.increment();
+        latency_total.add(nanos);
+        latency_counts[bucket(nanos)].increment();
+        rules_fired.add(fired);
+    }
+
+    /**
+     * Returns the latency bucket of a latency.
+     * @param nanos latency in nanoseconds.
+     * @return bucket.
+     */
+    private static int bucket(long nanos)
+    {
+        return Math.min(LATENCY_BUCKETS - 1,
+            64 - Long.numberOfLeadingZeros(Math.max(nanos, 0L)));
+    }
+
+    /**
+     * Returns the number of evaluations recorded.
+     * @return evaluations.
+     */
+    public long getEvaluationCount()
+    {
+        return evaluations.sum();
+    }
+
+    /**
+     * Returns the mean latency of the evaluations.
+     * @return mean latency in nanoseconds, or 0 if none were recorded.
+     */
+    public double getMeanLatency()
+    {
+        long n = evaluations.sum();
+
+        return n > 0 ? (double) latency_total.sum() / n : 0.;
+    }
+
+    /**
+     * Returns the latency histogram.  Bucket 0 counts latencies of 0 ns, and
+     * bucket b > 0 latencies from 2^(b-1) up to 2^b ns.
+     * @return counts, one per bucket.
+     */
+    public long[] getLatencyHistogram()
+    {
+        long[] counts = new long[LATENCY_BUCKETS];
+        for (int b = 0; b < LATENCY_BUCKETS; b++)
+        {
+            counts[b] = latency_counts[b].sum();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns an upper bound of the latency below which the fraction of the
+     * evaluations fall, from the histogram.
+     * @param fraction fraction, from 0 to 1, such as 0.99.
+     * @return upper bound of the bucket holding that fraction, in
+     * nanoseconds, or 0 if none were recorded.
+     */
+    public long getLatencyPercentile(double fraction)
+    {
+        if (!(fraction >= 0. && fraction <= 1.))
+        {
+            throw new IllegalArgumentException("Fraction must be from 0 to " +
+                "1: " + fraction);
+        }
+
+        long[] counts = getLatencyHistogram();
+        long total = 0;
+        for (int b = 0; b < LATENCY_BUCKETS; b++)
+        {
+            total += counts[b];
+        }
+
+        long cumulative = 0;
+        for (int b = 0; b < LATENCY_BUCKETS; b++)
+        {
+            cumulative += counts[b];
+            if (cumulative > 0 && cumulative >= fraction * total)
+            {
+                return b == 0 ? 0L : b < 63 ? 1L << b : Long.MAX_VALUE;
+            }
+        }
+
+        return 0L;
+    }
+
+    /**
+     * Returns the total number of rules fired over all evaluations.
+     * @return rules fired.
+     */
+    public long getRulesFired()
+    {
+        return rules_fired.sum();
+    }
+
+    /**
+     * Returns the mean number of rules fired per evaluation.
+     * @return rules fired per evaluation, or 0 if none were recorded.
+     */
+    public double getMeanRulesFired()
+    {
+        long n = evaluations.sum();
+
+        return n > 0 ? (double) rules_fired.sum() / n : 0.;
+    }
+
+    /**
+     * Returns the number of rules counted.
+     * @return number of rules.
+     */
+    public int getNumberOfRules()
+    {
+        return rule_fires.length;
+    }
+
+    /**
+     * Returns the number of evaluations in which the rule fired.
+     * @param rule index of the rule.
+     * @return firings.
+     */
+    public long getFireCount(int rule)
+    {
+        return rule_fires[rule].sum();
+    }
+
+    /**
+     * Returns the fraction of the evaluations in which the rule fired.
+     * @param rule index of the rule.
+     * @return firing frequency, or 0 if no evaluations were recorded.
+     */
+    public double getFireFrequency(int rule)
+    {
+        long n = evaluations.sum();
+
+        return n > 0 ? (double) rule_fires[rule].sum() / n : 0.;
+    }
+
+    /**
+     * Returns the mean activation level of the rule over all evaluations,
+     * counting evaluations in which it did not fire as 0.
+     * @param rule index of the rule.
+     * @return mean activation level, or 0 if no evaluations were recorded.
+     */
+    public double getMeanActivation(int rule)
+    {
+        long n = evaluations.sum();
+
+        return n > 0 ? rule_activations[rule].sum() / n : 0.;
+    }
+
+    /**
+     * Returns the number of evaluations in which the output fell back to its
+     * default value.
+     * @param slot slot of the output variable.
+     * @return fallbacks.
+     */
+    public long getDefaultCount(int slot)
+    {
+        return output_defaults[slot].sum();
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    public void reset()
+    {
+        evaluations.reset();
+        latency_total.reset();
+        for (int b = 0; b < LATENCY_BUCKETS; b++)
+        {
+            latency_counts[b].reset();
+        }
+
+        rules_fired.reset();
+        for (int i = 0; i < rule_fires.length; i++)
+        {
+            rule_fires[i].reset();
+            rule_activations[i].reset();
+        }
+
+        for (int o = 0; o < output_defaults.length; o++)
+        {
+            output_defaults[o].reset();
+        }
+    }
+}
@@ -0,0 +1,588 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Replays sample inputs through a rule base to find the rules that do not
+ * earn their keep, and builds a rule base without them.  For each sample
+ * and each rule that fires, the profiler measures how much the crisp
+ * output of the rule's output variable moves when the rule alone is left
+ * out.  From that it reports:
+ * - dead rules, which never fired on the samples,
+ * - dominated rules, which fired but never changed the accumulated output,
+ * for instance because under MAX accumulation other rules always reached
+ * higher over the rule's whole span,
+ * - negligible rules, which never moved a crisp output by more than a
+ * tolerance.  Dead and dominated rules are negligible at any tolerance.
+ *
+ * Rules are left out one at a time, so several negligible rules may be
+ * negligible only because they cover for one another.  prune() removes
+ * them together, and getAccuracyDelta() measures what that really costs
+ * on the samples.
+ *
+ * Outputs are profiled on their discretization, so output variables must
+ * be discretized, including those set for analytic defuzzification.
+ * Profiling fuzzifies the input variables and aggregates the rules of the
+ * rule base, which keep the degrees of membership and activation levels
+ * of the last sample; the discretes and crisp values of the output
+ * variables are not changed.
+ *
+ * @author Jeff Ridder
+ */
+public class RuleBaseProfiler
+{
+    private final RuleBase rule_base;
+
+    private Rule[] rules = new Rule[0];
+
+    private double[][] input_columns = new double[0][];
+
+    private int num_samples;
+
+    //  Per rule statistics, by position in the rule base.
+    private long[] fire_counts = new long[0];
+
+    private long[] change_counts = new long[0];
+
+    private double[] max_activation = new double[0];
+
+    private double[] max_delta = new double[0];
+
+    private double[] total_delta = new double[0];
+
+    /**
+     * Creates a new instance of RuleBaseProfiler.
+     * @param rule_base rule base to profile.
+     */
+    public RuleBaseProfiler(RuleBase rule_base)
+    {
+        this.rule_base = rule_base;
+    }
+
+    /**
+     * Profiles the rules over the samples, replacing the results of any
+     * earlier profiling.  Inputs are given column by column, in slot order,
+     * as for RuleBase.evaluateBatch():  input_columns[i][s] is the crisp
+     * value of input i for sample s.  The columns are kept for
+     * getAccuracyDelta(), and must not be changed until then.
+     * @param input_columns crisp inputs, one column per input variable.
+     */
+    public void profile(double[][] input_columns)
+    {
+        Variable[] ivars = rule_base.getInputVariables();
+        if (input_columns.length != ivars.length)
+        {
+            throw new IllegalArgumentException("Expected " + ivars.length +
+                " input columns: " + input_columns.length);
+        }
+
+        int nsamples = input_columns.length > 0 ? input_columns[0].length : 0;
+        for (int i = 0; i < input_columns.length; i++)
+        {
+            if (input_columns[i].length != nsamples)
+            {
+                throw new IllegalArgumentException("Input column " + i +
+                    " has " + input_columns[i].length + " samples, expected " +
+                    nsamples);
+            }
+        }
+
+        OutputVariable[] ovars = rule_base.getOutputVariables();
+        this.rules = rule_base.getRules();
+        this.input_columns = input_columns;
+        this.num_samples = nsamples;
+
+        int nrules = rules.length;
+        this.fire_counts = new long[nrules];
+        this.change_counts = new long[nrules];
+        this.max_activation = new double[nrules];
+        this.max_delta = new double[nrules];
+        this.total_delta = new double[nrules];
+
+        //  Output slot and discrete span of each rule's conclusion.
+        int[] rule_output = new int[nrules];
+        int[] rule_start = new int[nrules];
+        int[] rule_end = new int[nrules];
+        for (int r = 0; r < nrules; r++)
+        {
+            Conclusion conclusion = rules[r].getConclusion();
+            rule_output[r] = -1;
+            if (conclusion == null)
+            {
+                continue;
+            }
+
+            for (int o = 0; o < ovars.length; o++)
+            {
+                if (ovars[o] == conclusion.getOutputVariable())
+                {
+                    rule_output[r] = o;
+                    rule_start[r] = conclusion.getStartX();
+                    rule_end[r] = conclusion.getEndX();
+                    break;
+                }
+            }
+        }
+
+        AccumulationKernel kernel = AccumulationKernel.get(
+            rule_base.getActivationMethod(), rule_base.getAccumulationMethod());
+        boolean max = rule_base.getAccumulationMethod() ==
+            RuleBase.AccumulationMethod.MAX;
+        boolean prod = rule_base.getActivationMethod() ==
+            RuleBase.ActivationMethod.PROD;
+        And.FuzzyAndOperator and_operator = rule_base.getAndOperator();
+        Or.FuzzyOrOperator or_operator = rule_base.getOrOperator();
+
+        //  Per output discretes.  Under MAX accumulation, highest and second
+        //  highest activated value and the rule reaching the highest; under
+        //  BSUM, the unbounded sum.  accumulated holds the output as the rule
+        //  base accumulates it.
+        double[][] highest = new double[ovars.length][];
+        double[][] second = new double[ovars.length][];
+        int[][] owner = new int[ovars.length][];
+        double[][] accumulated = new double[ovars.length][];
+        for (int o = 0; o < ovars.length; o++)
+        {
+            int n = ovars[o].getDiscreteValues().length;
+            highest[o] = new double[n];
+            second[o] = new double[n];
+            owner[o] = new int[n];
+            accumulated[o] = new double[n];
+        }
+
+        double[] levels = new double[nrules];
+        double[] crisp = new double[ovars.length];
+
+        for (int s = 0; s < nsamples; s++)
+        {
+            for (int i = 0; i < ivars.length; i++)
+            {
+                rule_base.fuzzify(i, input_columns[i][s]);
+            }
+
+            for (int o = 0; o < ovars.length; o++)
+            {
+                Arrays.fill(highest[o], 0.);
+                Arrays.fill(second[o], 0.);
+                Arrays.fill(owner[o], -1);
+            }
+
+            //  Aggregate and accumulate.
+            for (int r = 0; r < nrules; r++)
+            {
+                levels[r] = rules[r].getConclusion() != null ?
+                    rules[r].aggregate(and_operator, or_operator) : 0.;
+                if (levels[r] == 0.)
+                {
+                    continue;
+                }
+
+                fire_counts[r]++;
+                max_activation[r] = Math.max(max_activation[r], levels[r]);
+
+                int o = rule_output[r];
+                if (o < 0)
+                {
+                    continue;
+                }
+
+                MembershipFunction term = ovars[o].getTerm(
+                    rules[r].getConclusion().getTermIndex());
+                double[] ty = term.getDiscreteValues();
+                int toff = term.getDiscreteOffset();
+                double[] top = highest[o];
+                double[] next = second[o];
+                for (int i = rule_start[r]; i <= rule_end[r]; i++)
+                {
+                    double c = activated(prod, levels[r], ty[toff + i]);
+                    if (!max)
+                    {
+                        top[i] += c;
+                    }
+                    else if (c > top[i])
+                    {
+                        next[i] = top[i];
+                        top[i] = c;
+                        owner[o][i] = r;
+                    }
+                    else if (c > next[i])
+                    {
+                        next[i] = c;
+                    }
+                }
+            }
+
+            for (int o = 0; o < ovars.length; o++)
+            {
+                double[] acc = accumulated[o];
+                for (int i = 0; i < acc.length; i++)
+                {
+                    acc[i] = max ? highest[o][i] : Math.min(1., highest[o][i]);
+                }
+                crisp[o] = defuzzify(kernel, ovars[o], acc);
+            }
+
+            //  Leave out each rule that fired in turn.
+            for (int r = 0; r < nrules; r++)
+            {
+                int o = rule_output[r];
+                if (levels[r] == 0. || o < 0)
+                {
+                    continue;
+                }
+
+                MembershipFunction term = ovars[o].getTerm(
+                    rules[r].getConclusion().getTermIndex());
+                double[] ty = term.getDiscreteValues();
+                int toff = term.getDiscreteOffset();
+                double[] acc = accumulated[o];
+                boolean changed = false;
+                for (int i = rule_start[r]; i <= rule_end[r]; i++)
+                {
+                    double without;
+                    if (max)
+                    {
+                        without = owner[o][i] == r ? second[o][i] : acc[i];
+                    }
+                    else
+                    {
+                        without = Math.min(1., highest[o][i] -
+                            activated(prod, levels[r], ty[toff + i]));
+                    }
+
+                    if (without != acc[i])
+                    {
+                        changed = true;
+                        acc[i] = without;
+                    }
+                }
+
+                if (!changed)
+                {
+                    continue;
+                }
+
+                change_counts[r]++;
+                double delta =
+                    Math.abs(defuzzify(kernel, ovars[o], acc) - crisp[o]);
+                max_delta[r] = Math.max(max_delta[r], delta);
+                total_delta[r] += delta;
+
+                //  Put the rule back.
+                for (int i = rule_start[r]; i <= rule_end[r]; i++)
+                {
+                    acc[i] = max ? highest[o][i] : Math.min(1., highest[o][i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the activated value of a term.
+     * @param prod true for PROD activation, false for MIN.
+     * @param level activation level.
+     * @param y degree of membership of the term.
+     * @return activated value.
+     */
+    private static double activated(boolean prod, double level, double y)
+    {
+        return prod ? level * y : Math.min(level, y);
+    }
+
+    /**
+     * Defuzzifies accumulated discretes of the output variable as the
+     * variable would.
+     * @param kernel kernel for the sums.
+     * @param ovar output variable.
+     * @param values accumulated discretes.
+     * @return crisp value.
+     */
+    private static double defuzzify(AccumulationKernel kernel,
+        OutputVariable ovar, double[] values)
+    {
+        int n = values.length;
+
+        switch (ovar.getDefuzzificationMethod())
+        {
+            case COG:
+            case COGS:
+            {
+                double sumDOMS = kernel.sum(values, 0, n);
+
+                if (sumDOMS > 0.)
+                {
+                    return kernel.moment(values, 0, n, ovar.getDiscreteX(0),
+                        ovar.getDiscreteStep()) / sumDOMS;
+                }
+
+                return ovar.getDefaultValue();
+            }
+            case COA:
+            {
+                double sumDOMS = kernel.sum(values, 0, n);
+
+                if (sumDOMS <= 0.)
+                {
+                    return ovar.getDefaultValue();
+                }
+
+                int i = kernel.halfway(values, 0, n, 0.5 * sumDOMS);
+                if (i >= 0)
+                {
+                    return ovar.getDiscreteX(i);
+                }
+
+                return ovar.getDefaultValue();
+            }
+            default:
+            {
+                return ovar.getDefaultValue();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of samples profiled.
+     * @return number of samples.
+     */
+    public int getNumberOfSamples()
+    {
+        return this.num_samples;
+    }
+
+    /**
+     * Returns the rules profiled, in the order of the rule base.  Rule
+     * statistics are indexed by position in this array.
+     * @return rules.
+     */
+    public Rule[] getRules()
+    {
+        return this.rules.clone();
+    }
+
+    /**
+     * Returns the number of samples in which the rule fired, that is had a
+     * non-zero activation level.
+     * @param rule position of the rule in the rule base.
+     * @return fire count.
+     */
+    public long getFireCount(int rule)
+    {
+        return this.fire_counts[rule];
+    }
+
+    /**
+     * Returns the highest activation level, weight included, that the rule
+     * reached.
+     * @param rule position of the rule in the rule base.
+     * @return highest activation level.
+     */
+    public double getMaxActivation(int rule)
+    {
+        return this.max_activation[rule];
+    }
+
+    /**
+     * Returns the number of samples in which leaving out the rule changed
+     * the accumulated output.
+     * @param rule position of the rule in the rule base.
+     * @return change count.
+     */
+    public long getChangeCount(int rule)
+    {
+        return this.change_counts[rule];
+    }
+
+    /**
+     * Returns the largest change of the crisp output that leaving out the
+     * rule caused.
+     * @param rule position of the rule in the rule base.
+     * @return largest absolute change.
+     */
+    public double getMaxContribution(int rule)
+    {
+        return this.max_delta[rule];
+    }
+
+    /**
+     * Returns the mean change of the crisp output that leaving out the rule
+     * caused, over all samples.
+     * @param rule position of the rule in the rule base.
+     * @return mean absolute change, or 0 if nothing was profiled.
+     */
+    public double getMeanContribution(int rule)
+    {
+        return num_samples > 0 ? total_delta[rule] / num_samples : 0.;
+    }
+
+    /**
+     * Returns the rules that never fired.
+     * @return dead rules, in the order of the rule base.
+     */
+    public Rule[] getDeadRules()
+    {
+        ArrayList<Rule> dead = new ArrayList<Rule>();
+        for (int r = 0; r < rules.length; r++)
+        {
+            if (fire_counts[r] == 0)
+            {
+                dead.add(rules[r]);
+            }
+        }
+
+        return dead.toArray(new Rule[dead.size()]);
+    }
+
+    /**
+     * Returns the rules that fired but never changed the accumulated
+     * output.
+     * @return dominated rules, in the order of the rule base.
+     */
+    public Rule[] getDominatedRules()
+    {
+        ArrayList<Rule> dominated = new ArrayList<Rule>();
+        for (int r = 0; r < rules.length; r++)
+        {
+            if (fire_counts[r] > 0 && change_counts[r] == 0)
+            {
+                dominated.add(rules[r]);
+            }
+        }
+
+        return dominated.toArray(new Rule[dominated.size()]);
+    }
+
+    /**
+     * Returns the rules that never changed a crisp output by more than the
+     * tolerance.  These include the dead and dominated rules.
+     * @param tolerance largest change of a crisp output thought negligible.
+     * @return negligible rules, in the order of the rule base.
+     */
+    public Rule[] getNegligibleRules(double tolerance)
+    {
+        ArrayList<Rule> negligible = new ArrayList<Rule>();
+        for (int r = 0; r < rules.length; r++)
+        {
+            if (isNegligible(r, tolerance))
+            {
+                negligible.add(rules[r]);
+            }
+        }
+
+        return negligible.toArray(new Rule[negligible.size()]);
+    }
+
+    /**
+     * Returns whether the rule never changed a crisp output by more than
+     * the tolerance.
+     * @param rule position of the rule in the rule base.
+     * @param tolerance largest change of a crisp output thought negligible.
+     * @return true if the rule is negligible.
+     */
+    private boolean isNegligible(int rule, double tolerance)
+    {
+        return change_counts[rule] == 0 || max_delta[rule] <= tolerance;
+    }
+
+    /**
+     * Returns a new rule base with the rules of the profiled one except the
+     * negligible rules, in the same order.  The new rule base has the same
+     * methods, operators and firing options, and shares the variables and
+     * rules of the profiled rule base, so the two must not be evaluated at
+     * the same time.
+     * @param tolerance largest change of a crisp output thought negligible.
+     * @return pruned rule base.
+     */
+    public RuleBase prune(double tolerance)
+    {
+        if (!(tolerance >= 0.))
+        {
+            throw new IllegalArgumentException("Tolerance must not be " +
+                "negative: " + tolerance);
+        }
+
+        RuleBase pruned = new RuleBase();
+        pruned.setActivationMethod(rule_base.getActivationMethod());
+        pruned.setAccumulationMethod(rule_base.getAccumulationMethod());
+        pruned.setAndOperator(rule_base.getAndOperator());
+        pruned.setOrOperator(rule_base.getOrOperator());
+        pruned.setIndexedFiring(rule_base.isIndexedFiring());
+        pruned.setIncrementalEvaluation(rule_base.isIncrementalEvaluation());
+
+        for (Variable ivar : rule_base.getInputVariables())
+        {
+            pruned.addInputVariable(ivar);
+        }
+
+        for (OutputVariable ovar : rule_base.getOutputVariables())
+        {
+            pruned.addOutputVariable(ovar);
+        }
+
+        for (int r = 0; r < rules.length; r++)
+        {
+            if (!isNegligible(r, tolerance))
+            {
+                pruned.addRule(rules[r]);
+            }
+        }
+
+        return pruned;
+    }
+
+    /**
+     * Returns, for each output variable, the largest difference between
+     * the crisp outputs of the profiled rule base and of the other rule
+     * base over the profiled samples.  Both rule bases are evaluated as
+     * they are now, by RuleBase.evaluateBatch().
+     * @param other rule base with the same inputs and outputs, typically
+     * from prune().
+     * @return largest absolute difference, one per output variable.
+     */
+    public double[] getAccuracyDelta(RuleBase other)
+    {
+        int noutputs = rule_base.getOutputVariables().length;
+        if (other.getOutputVariables().length != noutputs ||
+            other.getInputVariables().length != input_columns.length)
+        {
+            throw new IllegalArgumentException("Rule base has different " +
+                "inputs or outputs than the profiled one");
+        }
+
+        double[][] expected = new double[noutputs][num_samples];
+        double[][] actual = new double[noutputs][num_samples];
+        rule_base.evaluateBatch(input_columns, expected);
+        other.evaluateBatch(input_columns, actual);
+
+        double[] delta = new double[noutputs];
+        for (int o = 0; o < noutputs; o++)
+        {
+            for (int s = 0; s < num_samples; s++)
+            {
+                delta[o] = Math.max(delta[o],
+                    Math.abs(actual[o][s] - expected[o][s]));
+            }
+        }
+
+        return delta;
+    }
+}
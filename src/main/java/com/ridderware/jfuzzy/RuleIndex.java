@@ -0,0 +1,274 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Inverted index from input terms to the rules they can fire, for sparse
+ * rule firing.  Input terms are numbered consecutively across the input
+ * variables, as in CompiledRuleBase.
+ *
+ * Every rule is filed under a guard:  a set of input terms such that the
+ * condition of the rule aggregates to zero whenever all of them have zero
+ * degree of membership.  A plain term guards itself, an And is guarded by
+ * either of its operands (all And operators give zero if one operand is
+ * zero), and an Or by the union of the guards of its operands.  A negated
+ * term has no guard, and rules without a guard are always candidates.
+ * Since a rule with zero activation leaves the accumulated output
+ * unchanged under both MAX and BSUM, firing only the candidates gives the
+ * same result as firing every rule.
+ *
+ * @author Jeff Ridder
+ */
+final class RuleIndex
+{
+    //  Rules filed under each term, key_rules[key_start[t]..key_start[t+1]).
+    private final int[] key_start;
+
+    private final int[] key_rules;
+
+    //  Rules without a guard.
+    private final int[] unguarded;
+
+    /**
+     * Creates a new instance of RuleIndex.
+     * @param rules rules, in evaluation order.
+     * @param ivars input variables.
+     * @param term_start number of the first term of each input variable,
+     * plus the total number of terms at the end.
+     */
+    RuleIndex(Rule[] rules, Variable[] ivars, int[] term_start)
+    {
+        int nterms = term_start[ivars.length];
+        int[][] guards = new int[rules.length][];
+        int[] counts = new int[nterms];
+        int nunguarded = 0;
+
+        for (int r = 0; r < rules.length; r++)
+        {
+            ArrayList<Integer> guard = guard(rules[r].getCondition(), ivars,
+                term_start);
+            if (guard == null)
+            {
+                nunguarded++;
+                continue;
+            }
+
+            guards[r] = new int[guard.size()];
+            for (int i = 0; i < guards[r].length; i++)
+            {
+                guards[r][i] = guard.get(i);
+                counts[guards[r][i]]++;
+            }
+        }
+
+        this.key_start = new int[nterms + 1];
+        for (int t = 0; t < nterms; t++)
+        {
+            key_start[t + 1] = key_start[t] + counts[t];
+        }
+
+        this.key_rules = new int[key_start[nterms]];
+        this.unguarded = new int[nunguarded];
+
+        int[] fill = Arrays.copyOf(key_start, nterms);
+        int u = 0;
+        for (int r = 0; r < rules.length; r++)
+        {
+            if (guards[r] == null)
+            {
+                unguarded[u++] = r;
+                continue;
+            }
+
+            for (int t : guards[r])
+            {
+                key_rules[fill[t]++] = r;
+            }
+        }
+    }
+
+    /**
+     * Returns the guard of the condition, or null if it has none.
+     * @param condition condition.
+     * @param ivars input variables.
+     * @param term_start number of the first term of each input variable.
+     * @return term numbers of the guard, without duplicates, or null.
+     */
+    private static ArrayList<Integer> guard(ICondition condition,
+        Variable[] ivars, int[] term_start)
+    {
+        if (condition instanceof SubCondition)
+        {
+            SubCondition sub = (SubCondition) condition;
+            int v = 0;
+            while (v < ivars.length && ivars[v] != sub.getVariable())
+            {
+                v++;
+            }
+
+            int t = sub.getTermIndex();
+            if (sub.isNot() || v == ivars.length || t < 0 ||
+                t >= term_start[v + 1] - term_start[v])
+            {
+                return null;
+            }
+
+            ArrayList<Integer> guard = new ArrayList<Integer>();
+            guard.add(term_start[v] + t);
+            return guard;
+        }
+        else if (condition instanceof And)
+        {
+            And and = (And) condition;
+            ArrayList<Integer> guard1 = guard(and.getCondition1(), ivars,
+                term_start);
+            ArrayList<Integer> guard2 = guard(and.getCondition2(), ivars,
+                term_start);
+
+            if (guard1 == null)
+            {
+                return guard2;
+            }
+            if (guard2 == null || guard1.size() <= guard2.size())
+            {
+                return guard1;
+            }
+            return guard2;
+        }
+        else if (condition instanceof Or)
+        {
+            Or or = (Or) condition;
+            ArrayList<Integer> guard1 = guard(or.getCondition1(), ivars,
+                term_start);
+            ArrayList<Integer> guard2 = guard(or.getCondition2(), ivars,
+                term_start);
+
+            if (guard1 == null || guard2 == null)
+            {
+                return null;
+            }
+
+            for (Integer t : guard2)
+            {
+                if (!guard1.contains(t))
+                {
+                    guard1.add(t);
+                }
+            }
+            return guard1;
+        }
+
+        return null;
+    }
+
+    /**
+     * Selects the rules that can fire, in rule order.
+     * @param dom degree of membership of every input term.
+     * @param candidates receives the rule indices; must hold every rule.
+     * @param seen scratch flags, one per rule, all false on entry and on
+     * return.
+     * @return number of candidates.
+     */
+    int select(double[] dom, int[] candidates, boolean[] seen)
+    {
+        int n = 0;
+        for (int r : unguarded)
+        {
+            candidates[n++] = r;
+        }
+
+        for (int t = 0; t < dom.length; t++)
+        {
+            if (dom[t] == 0.)
+            {
+                continue;
+            }
+
+            for (int k = key_start[t]; k < key_start[t + 1]; k++)
+            {
+                int r = key_rules[k];
+                if (!seen[r])
+                {
+                    seen[r] = true;
+                    candidates[n++] = r;
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++)
+        {
+            seen[candidates[i]] = false;
+        }
+
+        sort(candidates, n);
+
+        return n;
+    }
+
+    /**
+     * Sorts a[0..n) in place by heapsort, which unlike Arrays.sort() never
+     * allocates.
+     * @param a array to sort.
+     * @param n number of elements to sort.
+     */
+    private static void sort(int[] a, int n)
+    {
+        for (int i = n / 2 - 1; i >= 0; i--)
+        {
+            siftDown(a, i, n);
+        }
+
+        for (int end = n - 1; end > 0; end--)
+        {
+            int top = a[0];
+            a[0] = a[end];
+            a[end] = top;
+            siftDown(a, 0, end);
+        }
+    }
+
+    /**
+     * Restores the max-heap property below node i of the heap a[0..n).
+     * @param a heap.
+     * @param i node.
+     * @param n size of the heap.
+     */
+    private static void siftDown(int[] a, int i, int n)
+    {
+        int value = a[i];
+        int child;
+        while ((child = 2 * i + 1) < n)
+        {
+            if (child + 1 < n && a[child + 1] > a[child])
+            {
+                child++;
+            }
+            if (a[child] <= value)
+            {
+                break;
+            }
+            a[i] = a[child];
+            i = child;
+        }
+        a[i] = value;
+    }
+}
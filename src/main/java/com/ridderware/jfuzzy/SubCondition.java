@@ -113,6 +113,33 @@ public class SubCondition implements ICondition
         }
     }
 
+    /**
+     * Returns the variable of this condition.
+     * @return variable.
+     */
+    Variable getVariable()
+    {
+        return this.variable;
+    }
+
+    /**
+     * Returns the index of the term of this condition.
+     * @return term index.
+     */
+    int getTermIndex()
+    {
+        return this.term_index;
+    }
+
+    /**
+     * Returns true if this is a NOT condition.
+     * @return true if NOT.
+     */
+    boolean isNot()
+    {
+        return this.not;
+    }
+
     /**
      * Aggregates the condition.
      * @return aggregated value.
@@ -128,4 +155,16 @@ public class SubCondition implements ICondition
             return variable.getTerm(term_index).getDOM();
         }
     }
+
+    /**
+     * Aggregates the condition.  A simple condition involves no operators.
+     * @param and_operator And operator.
+     * @param or_operator Or operator.
+     * @return aggregated value.
+     */
+    public double aggregate(And.FuzzyAndOperator and_operator,
+        Or.FuzzyOrOperator or_operator)
+    {
+        return aggregate();
+    }
 }
@@ -23,6 +23,9 @@ package com.ridderware.jfuzzy;
  * add membership functions by calling addTerm().  Fuzzy linguistic
  * variables are discretized prior to execution for rapid defuzzification.
  *
+ * For high-rate inputs a variable can fuzzify from a lookup table instead
+ * of its membership functions; see setLookupResolution().
+ *
  * @author Jeff Ridder
  */
 public class Variable
@@ -32,6 +35,25 @@ public class Variable
 //    private ArrayList<MembershipFunction> terms = new ArrayList<MembershipFunction>();
     private MembershipFunction[] terms = new MembershipFunction[0];
 
+    //  Number of grid points of the lookup table, or 0 if not used.
+    private int lookup_resolution;
+
+    //  DOM of every term at every grid point, grid point major.
+    private double[] lookup_table;
+
+    private double lookup_min;
+
+    private double lookup_max;
+
+    private double lookup_step;
+
+    //  Sum of the term modification counts when the table was built.
+    private long lookup_stamp;
+
+    //  Modification clock reading at the last change of the terms or a
+    //  setting.
+    private long version;
+
     /**
      * Creates a new instance of Variable
      * @param name name of the variable.
@@ -58,6 +80,33 @@ public class Variable
         newTerms[newTerms.length - 1] = term;
 
         terms = newTerms;
+
+        lookup_table = null;
+        variableChanged();
+    }
+
+    /**
+     * Called when a term is added or a setting of the variable changes.
+     */
+    void variableChanged()
+    {
+        this.version = ModificationClock.tick();
+    }
+
+    /**
+     * Returns the modification clock reading at the last change of the
+     * variable:  a term added or changed, or a setting changed.
+     * @return version.
+     */
+    long getVersion()
+    {
+        long version = this.version;
+        for (MembershipFunction term : terms)
+        {
+            version = Math.max(version, term.getVersion());
+        }
+
+        return version;
     }
 
     /**
@@ -94,12 +143,136 @@ public class Variable
      */
     public void fuzzify(double crisp_input)
     {
+        if (lookup_resolution > 0 && terms.length > 0)
+        {
+            fuzzifyFromTable(crisp_input);
+            return;
+        }
+
         for (MembershipFunction term : terms)
         {
             term.calculateDOM(crisp_input);
         }
     }
 
+    /**
+     * Sets the resolution of the fuzzification lookup table.  With a
+     * resolution of n, the DOM of every term is tabulated at n evenly spaced
+     * points across the universe of discourse (from the lowest to the highest
+     * data point of all terms), and fuzzify() interpolates all terms at once
+     * from the two nearest grid points instead of calculating each term.
+     * Inputs outside the universe take the values at its ends.  The table is
+     * exact wherever the data points of the terms fall on grid points, and a
+     * linear approximation elsewhere.  It is built on first use and rebuilt
+     * whenever a term is added or changed.
+     * @param resolution number of grid points (at least 2), or 0 to
+     * calculate each term directly.
+     */
+    public void setLookupResolution(int resolution)
+    {
+        if (resolution != 0 && resolution < 2)
+        {
+            throw new IllegalArgumentException("Lookup resolution must be 0 " +
+                "or at least 2: " + resolution);
+        }
+
+        this.lookup_resolution = resolution;
+        this.lookup_table = null;
+        variableChanged();
+    }
+
+    /**
+     * Returns the resolution of the fuzzification lookup table.
+     * @return number of grid points, or 0 if no table is used.
+     */
+    public int getLookupResolution()
+    {
+        return this.lookup_resolution;
+    }
+
+    /**
+     * Returns the memory taken by the fuzzification lookup table at the
+     * current resolution and number of terms.
+     * @return size of the table in bytes, or 0 if no table is used.
+     */
+    public long getLookupTableMemory()
+    {
+        return 8L * lookup_resolution * terms.length;
+    }
+
+    /**
+     * Fuzzifies from the lookup table, building it first if needed.
+     * @param crisp_input crisp input value.
+     */
+    private void fuzzifyFromTable(double crisp_input)
+    {
+        long stamp = 0;
+        for (MembershipFunction term : terms)
+        {
+            stamp += term.getModificationCount();
+        }
+
+        if (lookup_table == null || stamp != lookup_stamp)
+        {
+            buildLookupTable(stamp);
+        }
+
+        double x = Math.min(Math.max(crisp_input, lookup_min), lookup_max);
+
+        int i = (int) ((x - lookup_min) / lookup_step);
+        if (i > lookup_resolution - 2)
+        {
+            i = lookup_resolution - 2;
+        }
+        double fraction = (x - (lookup_min + i * lookup_step)) / lookup_step;
+
+        int lower = i * terms.length;
+        int upper = lower + terms.length;
+        for (int t = 0; t < terms.length; t++)
+        {
+            double a = lookup_table[lower + t];
+            terms[t].setDOM(a + (lookup_table[upper + t] - a) * fraction);
+        }
+    }
+
+    /**
+     * Tabulates the DOM of every term over the universe of discourse.
+     * @param stamp sum of the term modification counts.
+     */
+    private void buildLookupTable(long stamp)
+    {
+        lookup_min = Double.MAX_VALUE;
+        lookup_max = -Double.MAX_VALUE;
+        for (MembershipFunction term : terms)
+        {
+            lookup_min = Math.min(lookup_min, term.getDataPoint(0).getX());
+            lookup_max = Math.max(lookup_max,
+                term.getDataPoint(term.getNumberOfDataPoints() - 1).getX());
+        }
+
+        lookup_step = (lookup_max - lookup_min) / (lookup_resolution - 1);
+        if (!(lookup_step > 0.))
+        {
+            //  Degenerate universe:  every input maps to the first row.
+            lookup_step = 1.;
+        }
+
+        //  The calculations below leave each term's DOM at its last grid
+        //  point, which fuzzifyFromTable() overwrites straight away.
+        lookup_table = new double[lookup_resolution * terms.length];
+        for (int i = 0; i < lookup_resolution; i++)
+        {
+            double x = i == lookup_resolution - 1 ? lookup_max
+                : lookup_min + i * lookup_step;
+            for (int t = 0; t < terms.length; t++)
+            {
+                lookup_table[i * terms.length + t] = terms[t].calculateDOM(x);
+            }
+        }
+
+        lookup_stamp = stamp;
+    }
+
     /**
      * Returns the index of the term of this name.
      * @param name name of requested term.
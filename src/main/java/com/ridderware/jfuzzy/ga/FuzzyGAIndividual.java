@@ -71,6 +71,9 @@ public class FuzzyGAIndividual extends Individual
     
     private int max_initial_rules;
     
+    //  What was last assembled, and into which rule base, or null.
+    private volatile Assembly assembled;
+    
     private static final Logger logger = LogManager.getLogger(FuzzyGAIndividual.class);
     
     /**
@@ -281,17 +284,27 @@ public class FuzzyGAIndividual extends Individual
      * Decodes the fixed length part of the genome, including membership functions.
      */
     protected void decodeFixed()
+    {
+        decodeFixed(this.rule_base);
+    }
+    
+    /**
+     * Decodes the fixed length part of the genome into the specified rule base,
+     * which must be the rule base of this individual or a copy of it.
+     * @param rule_base the rule base to decode into.
+     */
+    protected void decodeFixed(RuleBase rule_base)
     {
         int index = 0;
         
         //  Loop over input variables and decode them.
-        for ( Variable ivar : this.rule_base.getInputVariables() )
+        for ( Variable ivar : rule_base.getInputVariables() )
         {
             index = decodeVariable(ivar, index);
         }
         
         //  Decode output variables
-        for ( OutputVariable ovar : this.rule_base.getOutputVariables() )
+        for ( OutputVariable ovar : rule_base.getOutputVariables() )
         {
             index = decodeVariable(ovar, index);
             
@@ -303,15 +316,15 @@ public class FuzzyGAIndividual extends Individual
         
         //  Activation method
         int act = this.fixed_genotype.get(index++).intValue();
-        this.rule_base.setActivationMethod(RuleBase.ActivationMethod.values()[act]);
+        rule_base.setActivationMethod(RuleBase.ActivationMethod.values()[act]);
         
         //  Accumulation
         int accu = this.fixed_genotype.get(index++).intValue();
-        this.rule_base.setAccumulationMethod(RuleBase.AccumulationMethod.values()[accu]);
+        rule_base.setAccumulationMethod(RuleBase.AccumulationMethod.values()[accu]);
         
         //  And
         int and = this.fixed_genotype.get(index++).intValue();
-        this.rule_base.setAndOperator(And.FuzzyAndOperator.values()[and]);
+        rule_base.setAndOperator(And.FuzzyAndOperator.values()[and]);
     }
     
     /**
@@ -483,10 +496,20 @@ public class FuzzyGAIndividual extends Individual
     }
     
     /**
-     * Assembles the rule base by decoding the genotype.
+     * Assembles the rule base by decoding the genotype.  Nothing is done if
+     * neither the genotype nor the rule base changed since this individual was
+     * last assembled into it.  Otherwise, membership functions that come out
+     * the same are not changed, output variables whose terms did not change
+     * are not discretized again, and rule genes that did not change reuse the
+     * rules they last decoded.
      */
     public void assemble()
     {
+        if ( this.isAssembled(this.rule_base) )
+        {
+            return;
+        }
+        
         this.decodeFixed();
         
         this.rule_base.clearRules();
@@ -501,6 +524,129 @@ public class FuzzyGAIndividual extends Individual
                 this.rule_base.addRule(r);
             }
         }
+        
+        this.assembled = new Assembly(this.rule_base);
+    }
+    
+    /**
+     * Assembles the specified rule base by decoding the genotype.  The rule
+     * base must be a copy of the rule base of this individual (see
+     * RuleBase.copy()).  This does not change the individual or its rule base,
+     * so several threads may each assemble an individual into their own copy.
+     * As for assemble(), only what changed is rebuilt.
+     * @param rule_base the rule base to assemble.
+     */
+    public void assemble(RuleBase rule_base)
+    {
+        if ( this.isAssembled(rule_base) )
+        {
+            return;
+        }
+        
+        this.decodeFixed(rule_base);
+        
+        rule_base.clearRules();
+        
+        Variable[] ivars = rule_base.getInputVariables();
+        OutputVariable[] ovars = rule_base.getOutputVariables();
+        for ( RuleGene g : this.rule_genes )
+        {
+            Rule r = g.decodeRule(ivars, ovars);
+            
+            if ( r != null )
+            {
+                rule_base.addRule(r);
+            }
+        }
+        
+        this.assembled = new Assembly(rule_base);
+    }
+    
+    /**
+     * Returns whether the rule base holds what this individual last assembled
+     * into it, with neither having changed since.
+     * @param rule_base the rule base.
+     * @return true if nothing needs assembling.
+     */
+    private boolean isAssembled(RuleBase rule_base)
+    {
+        Assembly last = this.assembled;
+        
+        return last != null && last.rule_base == rule_base &&
+            last.stamp == rule_base.getModificationStamp() && last.matches();
+    }
+    
+    /**
+     * A record of what an individual assembled into a rule base:  the fixed
+     * genotype, the rule genes and their modification counts, and the
+     * modification stamp of the rule base afterwards.
+     */
+    private final class Assembly
+    {
+        private final RuleBase rule_base;
+        
+        private final long stamp;
+        
+        private final double[] fixed;
+        
+        private final RuleGene[] genes;
+        
+        private final int[] gene_counts;
+        
+        /**
+         * Creates a new instance of Assembly for the current genotype.
+         * @param rule_base the rule base assembled.
+         */
+        Assembly(RuleBase rule_base)
+        {
+            this.rule_base = rule_base;
+            this.stamp = rule_base.getModificationStamp();
+            
+            this.fixed = new double[fixed_genotype.size()];
+            for ( int i = 0; i < fixed.length; i++ )
+            {
+                this.fixed[i] = fixed_genotype.get(i);
+            }
+            
+            this.genes = rule_genes.toArray(new RuleGene[rule_genes.size()]);
+            this.gene_counts = new int[genes.length];
+            for ( int i = 0; i < genes.length; i++ )
+            {
+                this.gene_counts[i] = genes[i].getModificationCount();
+            }
+        }
+        
+        /**
+         * Returns whether the genotype is still the one assembled.
+         * @return true if unchanged.
+         */
+        boolean matches()
+        {
+            if ( fixed_genotype.size() != fixed.length ||
+                rule_genes.size() != genes.length )
+            {
+                return false;
+            }
+            
+            for ( int i = 0; i < fixed.length; i++ )
+            {
+                if ( fixed_genotype.get(i) != fixed[i] )
+                {
+                    return false;
+                }
+            }
+            
+            for ( int i = 0; i < genes.length; i++ )
+            {
+                if ( rule_genes.get(i) != genes[i] ||
+                    genes[i].getModificationCount() != gene_counts[i] )
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
     }
     
     /**
@@ -531,6 +677,8 @@ public class FuzzyGAIndividual extends Individual
         
         obj.rule_genes = new ArrayList<RuleGene>();
         
+        obj.assembled = null;
+        
         obj.rule_genes.clear();
         
         for ( RuleGene g : this.rule_genes )
@@ -560,6 +708,8 @@ public class FuzzyGAIndividual extends Individual
         
         this.rule_genes.clear();
         
+        this.assembled = null;
+        
         for ( RuleGene g : ga_obj.rule_genes )
         {
             this.rule_genes.add(g.clone());
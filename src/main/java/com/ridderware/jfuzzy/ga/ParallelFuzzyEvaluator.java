@@ -0,0 +1,249 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.ga;
+
+import com.ridderware.jevolve.EvaluatorInterface;
+import com.ridderware.jevolve.Individual;
+import com.ridderware.jevolve.Population;
+import com.ridderware.jfuzzy.RuleBase;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.apache.logging.log4j.*;
+
+/**
+ * A GA evaluator that evaluates the fitness of fuzzy GA individuals in parallel
+ * on a pool of threads.  evaluateFitness only submits the individual; the
+ * fitness values are collected and set in postevaluate, on the calling thread
+ * and in the order the individuals were submitted.  Subclasses that override
+ * preevaluate or postevaluate must call the superclass methods.
+ *
+ * Individuals normally share one rule base, which assemble changes.  Instead,
+ * each evaluation assembles the individual into a private copy of its rule base
+ * (see RuleBase.copy()), made once per thread, and computeFitness works on that
+ * copy.  The individual and its own rule base are not changed, except for the
+ * fitness.  As long as computeFitness depends only on the rule base it is given
+ * and on state set up before evaluation (e.g., in preevaluate), the fitness of
+ * each individual is the same as if evaluated serially, so runs remain
+ * deterministic for a given seed.
+ *
+ * @author Jeff Ridder
+ */
+public abstract class ParallelFuzzyEvaluator implements EvaluatorInterface
+{
+    private final int num_threads;
+    
+    private final ExecutorService executor;
+    
+    //  Individuals submitted since the last postevaluate, and their fitness.
+    private final ArrayList<Individual> submitted = new ArrayList<Individual>();
+    
+    private final ArrayList<Future<Double>> fitness = new ArrayList<Future<Double>>();
+    
+    //  Private copies of each rule base evaluated, one per thread.
+    private final IdentityHashMap<RuleBase, BlockingQueue<RuleBase>> copies =
+        new IdentityHashMap<RuleBase, BlockingQueue<RuleBase>>();
+    
+    private static final Logger logger = LogManager.getLogger(ParallelFuzzyEvaluator.class);
+    
+    /**
+     * Creates a new instance of ParallelFuzzyEvaluator with one thread per
+     * available processor.
+     */
+    public ParallelFuzzyEvaluator()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Creates a new instance of ParallelFuzzyEvaluator.
+     * @param num_threads number of threads to evaluate on.
+     */
+    public ParallelFuzzyEvaluator(int num_threads)
+    {
+        if ( num_threads < 1 )
+        {
+            throw new IllegalArgumentException("Number of threads must be at least 1: " +
+                num_threads);
+        }
+        
+        this.num_threads = num_threads;
+        this.executor = Executors.newFixedThreadPool(num_threads, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "ParallelFuzzyEvaluator");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    /**
+     * Returns the number of threads evaluated on.
+     * @return number of threads.
+     */
+    public int getNumThreads()
+    {
+        return this.num_threads;
+    }
+    
+    /**
+     * Computes the fitness of the individual.  This is called on one of the
+     * threads of the evaluator, with the individual already assembled into
+     * the rule base.  It must not change the individual, its rule base, or
+     * any state shared with other evaluations.
+     * @param ind individual to evaluate.
+     * @param rule_base private rule base assembled from the individual.
+     * @return fitness.
+     */
+    protected abstract double computeFitness(FuzzyGAIndividual ind, RuleBase rule_base);
+    
+    /**
+     * Evaluates constraints.  Does nothing.
+     * @param ind individual to evaluate.
+     */
+    public void evaluateConstraints(Individual ind)
+    {
+    }
+    
+    /**
+     * Preevaluates the population.  Discards any evaluations left over from
+     * an earlier population that was not postevaluated.
+     * @param pop population to preevaluate.
+     */
+    public void preevaluate(Population pop)
+    {
+        for ( Future<Double> f : this.fitness )
+        {
+            f.cancel(false);
+        }
+        
+        this.submitted.clear();
+        this.fitness.clear();
+    }
+    
+    /**
+     * Submits the individual for evaluation, unless it is already evaluated.
+     * Its fitness is set in postevaluate.
+     * @param ind individual to evaluate.
+     */
+    public void evaluateFitness(Individual ind)
+    {
+        final FuzzyGAIndividual ga_ind = (FuzzyGAIndividual) ind;
+        
+        if ( ga_ind.getEvaluated() )
+        {
+            return;
+        }
+        
+        final BlockingQueue<RuleBase> queue = copiesOf(ga_ind.getRuleBase());
+        
+        this.submitted.add(ga_ind);
+        this.fitness.add(this.executor.submit(new Callable<Double>()
+        {
+            public Double call() throws Exception
+            {
+                RuleBase rule_base = queue.take();
+                try
+                {
+                    ga_ind.assemble(rule_base);
+                    
+                    return computeFitness(ga_ind, rule_base);
+                }
+                finally
+                {
+                    queue.put(rule_base);
+                }
+            }
+        }));
+    }
+    
+    /**
+     * Returns the private copies of the rule base, making them the first time.
+     * @param rule_base rule base of an individual.
+     * @return a queue holding one copy per thread.
+     */
+    private BlockingQueue<RuleBase> copiesOf(RuleBase rule_base)
+    {
+        BlockingQueue<RuleBase> queue = this.copies.get(rule_base);
+        
+        if ( queue == null )
+        {
+            queue = new ArrayBlockingQueue<RuleBase>(this.num_threads);
+            for ( int i = 0; i < this.num_threads; i++ )
+            {
+                queue.add(rule_base.copy());
+            }
+            
+            this.copies.put(rule_base, queue);
+        }
+        
+        return queue;
+    }
+    
+    /**
+     * Postevaluates the population.  Waits for the individuals submitted since
+     * the last postevaluate to be evaluated, then sets their fitness in the
+     * order they were submitted.
+     * @param pop population to postevaluate.
+     */
+    public void postevaluate(Population pop)
+    {
+        try
+        {
+            for ( int i = 0; i < this.submitted.size(); i++ )
+            {
+                this.submitted.get(i).setFitness(this.fitness.get(i).get());
+            }
+        }
+        catch(InterruptedException e)
+        {
+            logger.error("Interrupted while waiting for fitness evaluation.");
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch(ExecutionException e)
+        {
+            logger.error("Fitness evaluation failed: " + e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            this.submitted.clear();
+            this.fitness.clear();
+        }
+    }
+    
+    /**
+     * Stops the threads of the evaluator once the evaluations already submitted
+     * are done.  The evaluator cannot be used afterwards.
+     */
+    public void shutdown()
+    {
+        this.executor.shutdown();
+    }
+}
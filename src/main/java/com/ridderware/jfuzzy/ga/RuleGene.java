@@ -64,6 +64,12 @@ public class RuleGene implements Cloneable
     
     private ArrayList<Double> subgenotype = new ArrayList<Double>();
     
+    //  The rule last decoded, or null if the subgenotype changed since.
+    private volatile DecodedRule decoded;
+    
+    //  Incremented whenever the subgenotype changes.
+    private int modification_count;
+    
     private static final Logger logger = LogManager.getLogger(RuleGene.class);
     
     /**
@@ -96,6 +102,8 @@ public class RuleGene implements Cloneable
             
             obj.subgenotype = (ArrayList<Double>) this.subgenotype.clone();
             
+            obj.decoded = null;
+            
             return obj;
         }
         catch(CloneNotSupportedException e)
@@ -115,6 +123,7 @@ public class RuleGene implements Cloneable
         this.output_variables = obj.output_variables;
         this.encodeRule();
         this.subgenotype = (ArrayList<Double>)obj.subgenotype.clone();
+        this.genotypeChanged();
     }
     
     /**
@@ -123,6 +132,7 @@ public class RuleGene implements Cloneable
     public void initialize()
     {
         subgenotype.clear();
+        this.genotypeChanged();
         
         this.encodeRule();
         
@@ -142,6 +152,25 @@ public class RuleGene implements Cloneable
         int index = MersenneTwisterFast.getInstance().nextInt(subgenome.size());
         
         subgenotype.set(index,subgenome.get(index).randomGaussianValue(subgenotype.get(index)));
+        this.genotypeChanged();
+    }
+    
+    /**
+     * Called whenever the subgenotype changes.  Drops the rule last decoded.
+     */
+    protected void genotypeChanged()
+    {
+        this.decoded = null;
+        this.modification_count++;
+    }
+    
+    /**
+     * Returns a count that changes whenever the subgenotype changes.
+     * @return modification count.
+     */
+    public int getModificationCount()
+    {
+        return this.modification_count;
     }
     
     /**
@@ -198,11 +227,53 @@ public class RuleGene implements Cloneable
     
     /**
      * Decodes and returns the rule for the current genotype.
-     * This rule will be added to the rule-base.
+     * This rule will be added to the rule-base.  The rule is kept, and
+     * returned again until the genotype changes.
      *
      * @return the decoded rule.
      */
     public Rule decodeRule()
+    {
+        return decodeRule(this.input_variables, this.output_variables);
+    }
+
+    /**
+     * Decodes and returns the rule for the current genotype, referring to
+     * the given variables instead of those of the gene.  The variables must
+     * match those of the gene in number, order and terms, as those of a
+     * copy of the rule base do.  The rule is kept, and returned again for
+     * the same variables until the genotype changes.  Several threads may
+     * decode the same gene at once, each for variables of its own.
+     *
+     * @param input_variables a Java array of input variables.
+     * @param output_variables a Java array of output variables.
+     * @return the decoded rule.
+     */
+    public Rule decodeRule(Variable[] input_variables,
+        OutputVariable[] output_variables)
+    {
+        DecodedRule last = this.decoded;
+        if ( last != null && last.refersTo(input_variables, output_variables) )
+        {
+            return last.rule;
+        }
+        
+        Rule rule = decode(input_variables, output_variables);
+        
+        this.decoded = new DecodedRule(rule, input_variables.clone(),
+            output_variables.clone());
+        
+        return rule;
+    }
+    
+    /**
+     * Decodes the rule for the current genotype.
+     * @param input_variables a Java array of input variables.
+     * @param output_variables a Java array of output variables.
+     * @return the decoded rule, or null if it has no conditions.
+     */
+    private Rule decode(Variable[] input_variables,
+        OutputVariable[] output_variables)
     {
         Rule rule = null;
         
@@ -270,4 +341,67 @@ public class RuleGene implements Cloneable
         
         return rule;
     }
+    
+    /**
+     * A decoded rule, along with the variables it refers to.
+     */
+    private static final class DecodedRule
+    {
+        private final Rule rule;
+        
+        private final Variable[] input_variables;
+        
+        private final OutputVariable[] output_variables;
+        
+        /**
+         * Creates a new instance of DecodedRule.
+         * @param rule the decoded rule.
+         * @param input_variables input variables it refers to.
+         * @param output_variables output variables it refers to.
+         */
+        DecodedRule(Rule rule, Variable[] input_variables,
+            OutputVariable[] output_variables)
+        {
+            this.rule = rule;
+            this.input_variables = input_variables;
+            this.output_variables = output_variables;
+        }
+        
+        /**
+         * Returns whether the rule was decoded for the same variables.
+         * @param input_variables input variables.
+         * @param output_variables output variables.
+         * @return true if the variables are the same objects.
+         */
+        boolean refersTo(Variable[] input_variables,
+            OutputVariable[] output_variables)
+        {
+            return same(this.input_variables, input_variables) &&
+                same(this.output_variables, output_variables);
+        }
+        
+        /**
+         * Returns whether two arrays hold the same objects in the same order.
+         * @param a first array.
+         * @param b second array.
+         * @return true if the same.
+         */
+        private static boolean same(Object[] a, Object[] b)
+        {
+            if ( a.length != b.length )
+            {
+                return false;
+            }
+            
+            for ( int i = 0; i < a.length; i++ )
+            {
+                if ( a[i] != b[i] )
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+    }
 }
@@ -19,40 +19,33 @@
 
 package com.ridderware.jfuzzy.ga.examples.flyga;
 
-import com.ridderware.jevolve.Individual;
 import com.ridderware.jevolve.Population;
-import com.ridderware.jevolve.EvaluatorInterface;
 import com.ridderware.jfuzzy.RuleBase;
 import com.ridderware.jfuzzy.ga.FuzzyGAIndividual;
+import com.ridderware.jfuzzy.ga.ParallelFuzzyEvaluator;
 
 /**
- * A GA evaluator for the flyga example.
+ * A GA evaluator for the flyga example.  Individuals are evaluated in parallel,
+ * one thread per available processor.
  *
  *  @author Jeff Ridder
  */
-public class flygaEvaluator implements EvaluatorInterface
+public class flygaEvaluator extends ParallelFuzzyEvaluator
 {
     double[] x = new double[60];
     double[] y = new double[60];
     
-    /**
-     *  Evaluates constraints.  Does nothing for this example.
-     *
-     * @param  ind individual to evaluate.
-     */
-    public void evaluateConstraints(Individual ind)
-    {
-    }
-    
-    
     /**
      * Preevaluates the population.  Creates a test set of angle-of-arrival
      * input values and desires roll-angle outputs.
      *
      * @param  pop population to preevaluate.
      */
+    @Override
     public void preevaluate(Population pop)
     {
+        super.preevaluate(pop);
+        
         //	Create the test set
         for ( int i = 0; i < 60; i++ )
         {
@@ -64,47 +57,29 @@ public class flygaEvaluator implements EvaluatorInterface
     
     
     /**
-     * Postevaluates the population.  Does nothing.
-     *
-     * @param  pop population to postevaluate.
-     */
-    public void postevaluate(Population pop)
-    {
-    }
-    
-    
-    /**
-     * Evaluates fitness.  For this example, fitness is determined to be the accumulated
+     * Computes fitness.  For this example, fitness is determined to be the accumulated
      * difference between the desired and actual roll-angle outputs across a range
      * of angle-of-arrival input values.
      *
      * @param  ind individual to be evaluated.
+     * @param  a rule base assembled from the individual.
+     * @return fitness.
      */
-    public void evaluateFitness(Individual ind)
+    protected double computeFitness(FuzzyGAIndividual ind, RuleBase a)
     {
-        FuzzyGAIndividual ga_ind = (FuzzyGAIndividual) ind;
-        
-        if (ga_ind.getEvaluated())
-        {
-            return;
-        }
-        
         double fitness = 0.;
         
-        ga_ind.assemble();
-        
-        RuleBase a = ga_ind.getRuleBase();
+        int aoa = a.getInputSlot("AoA");
+        int roll_angle = a.getOutputSlot("Roll Angle");
         for ( int i = 0; i < 60; i++ )
         {
-            a.getInputVariable("AoA").fuzzify(x[i]);
+            a.fuzzify(aoa, x[i]);
             
             a.evaluateRules();
             
-            fitness += Math.abs(a.getCrispOutput("Roll Angle")-y[i]);
+            fitness += Math.abs(a.getCrispOutput(roll_angle)-y[i]);
         }
         
-        ga_ind.setFitness(fitness);
-        
+        return fitness;
     }
 }
-
@@ -0,0 +1,431 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks that evaluation does not allocate once warmed up.  Each scenario
+ * fuzzifies, evaluates and reads the outputs of a rule base many times,
+ * and the bytes allocated by the thread in the measured loop are read from
+ * the ThreadMXBean.  The check is run by the test phase of the build, and
+ * exits with status 1 if any scenario allocates, which fails the build.
+ * It also fails if the JVM cannot count the bytes allocated by a thread,
+ * rather than pass without checking anything.
+ *
+ * @author Jeff Ridder
+ */
+public final class AllocationCheck
+{
+    private static final int WARMUP = 20000;
+
+    private static final int ITERATIONS = 10000;
+
+    //  Synthetic rule bases:  inputs, terms per variable and universe.
+    private static final int SYNTHETIC_INPUTS = 4;
+
+    private static final int SYNTHETIC_TERMS = 7;
+
+    private static final double SYNTHETIC_MIN = -100.;
+
+    private static final double SYNTHETIC_MAX = 100.;
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationCheck()
+    {
+    }
+
+    /**
+     * A repeatable piece of work to check.
+     */
+    private interface Scenario
+    {
+        /**
+         * Runs one iteration.
+         * @param i iteration number.
+         * @return a result, consumed so the work is not optimized away.
+         */
+        double run(int i);
+    }
+
+    /**
+     * Runs every scenario and exits with status 1 if any allocates, or if
+     * allocation cannot be counted.
+     * @param args path of fly.fcl, by default in the working directory.
+     * @throws IOException if fly.fcl cannot be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (!threads.isThreadAllocatedMemorySupported())
+        {
+            System.out.println("FAILED: this JVM cannot count the bytes " +
+                "allocated by a thread, so evaluation cannot be checked for " +
+                "allocation.  Run the build on a HotSpot-based JVM, or skip " +
+                "the check with -DskipTests.");
+            System.exit(1);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        File fcl = new File(args.length > 0 ? args[0] : "fly.fcl");
+        double[] x = samples(1024, 7);
+        boolean failed = false;
+
+        failed |= check("fly, by name", byName(fly(fcl), x));
+        failed |= check("fly, by slot", bySlot(fly(fcl), x));
+        failed |= check("synthetic 100", byVariable(
+            synthetic(100, 1), x));
+
+        RuleBase indexed = synthetic(1000, 1);
+        indexed.setIndexedFiring(true);
+        failed |= check("synthetic 1000, indexed", byVariable(indexed, x));
+
+        RuleBase analytic = synthetic(100, 1);
+        analytic.getOutputVariables()[0].setAnalyticDefuzzification(true);
+        failed |= check("synthetic 100, analytic", byVariable(analytic, x));
+
+        RuleBase lookup = synthetic(100, 1);
+        for (Variable ivar : lookup.getInputVariables())
+        {
+            ivar.setLookupResolution(1001);
+        }
+        failed |= check("synthetic 100, lookup tables", byVariable(lookup, x));
+
+        RuleBase incremental = synthetic(100, 1);
+        incremental.setIncrementalEvaluation(true);
+        failed |= check("synthetic 100, incremental",
+            byVariable(incremental, x));
+
+        RuleBase measured = synthetic(100, 1);
+        measured.setMetrics(new RuleBaseMetrics(measured));
+        failed |= check("synthetic 100, metrics", byVariable(measured, x));
+
+        failed |= check("synthetic 100, compiled",
+            compiled(synthetic(100, 1), x));
+
+        if (failed)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the fly.fcl controller, with its output discretized as in the
+     * examples.
+     * @param fcl fly.fcl file.
+     * @return fly rule base.
+     * @throws IOException if fly.fcl cannot be read.
+     */
+    private static RuleBase fly(File fcl) throws IOException
+    {
+        RuleBase rule_base = new RuleBase();
+        try (InputStream in = new FileInputStream(fcl))
+        {
+            rule_base.readFCL(in);
+        }
+
+        OutputVariable ovar = rule_base.getOutputVariable("Roll Angle");
+        ovar.setNumDiscretes(361);
+        ovar.discretize();
+
+        return rule_base;
+    }
+
+    /**
+     * Builds a synthetic rule base with SYNTHETIC_INPUTS inputs and one
+     * output, each with SYNTHETIC_TERMS evenly spread triangular terms.
+     * Every rule ANDs one to three randomly chosen input conditions.
+     * @param num_rules number of rules.
+     * @param seed random seed.
+     * @return synthetic rule base.
+     */
+    private static RuleBase synthetic(int num_rules, long seed)
+    {
+        Random random = new Random(seed);
+        RuleBase rule_base = new RuleBase();
+
+        Variable[] ivars = new Variable[SYNTHETIC_INPUTS];
+        for (int i = 0; i < ivars.length; i++)
+        {
+            ivars[i] = new Variable("in" + i);
+            addTerms(ivars[i]);
+            rule_base.addInputVariable(ivars[i]);
+        }
+
+        OutputVariable ovar = new OutputVariable("out");
+        addTerms(ovar);
+        ovar.discretize();
+        rule_base.addOutputVariable(ovar);
+
+        for (int r = 0; r < num_rules; r++)
+        {
+            int conditions = 1 + random.nextInt(3);
+            ICondition condition = null;
+            for (int c = 0; c < conditions; c++)
+            {
+                ICondition sub = new SubCondition(
+                    ivars[random.nextInt(ivars.length)],
+                    random.nextInt(SYNTHETIC_TERMS));
+                condition = condition == null ? sub : new And(sub, condition);
+            }
+
+            Conclusion conclusion = new Conclusion(ovar,
+                random.nextInt(SYNTHETIC_TERMS), 0.5 + 0.5 * random.nextDouble());
+            rule_base.addRule(new Rule(condition, conclusion));
+        }
+
+        return rule_base;
+    }
+
+    /**
+     * Adds SYNTHETIC_TERMS triangular terms spread evenly over the universe,
+     * with shoulders at both ends.
+     * @param var variable to add the terms to.
+     */
+    private static void addTerms(Variable var)
+    {
+        double width = (SYNTHETIC_MAX - SYNTHETIC_MIN) / (SYNTHETIC_TERMS - 1);
+
+        for (int t = 0; t < SYNTHETIC_TERMS; t++)
+        {
+            double peak = SYNTHETIC_MIN + t * width;
+            MembershipFunction term = new MembershipFunction("t" + t);
+
+            if (t > 0)
+            {
+                term.addDataPoint(peak - width, 0.);
+            }
+            term.addDataPoint(peak, 1.);
+            if (t < SYNTHETIC_TERMS - 1)
+            {
+                term.addDataPoint(peak + width, 0.);
+            }
+
+            var.addTerm(term);
+        }
+    }
+
+    /**
+     * Returns crisp inputs spread over the synthetic universe, slightly
+     * beyond both ends, from a fixed seed.
+     * @param count number of samples.
+     * @param seed random seed.
+     * @return samples.
+     */
+    private static double[] samples(int count, long seed)
+    {
+        Random random = new Random(seed);
+        double[] x = new double[count];
+        double span = SYNTHETIC_MAX - SYNTHETIC_MIN;
+
+        for (int i = 0; i < count; i++)
+        {
+            x[i] = SYNTHETIC_MIN - 0.05 * span + 1.1 * span * random.nextDouble();
+        }
+
+        return x;
+    }
+
+    /**
+     * Returns a scenario that fuzzifies and reads variables by name.
+     * @param rule_base rule base.
+     * @param x samples.
+     * @return scenario.
+     */
+    private static Scenario byName(final RuleBase rule_base, final double[] x)
+    {
+        final Variable[] ivars = rule_base.getInputVariables();
+        final OutputVariable[] ovars = rule_base.getOutputVariables();
+        final String[] inames = new String[ivars.length];
+        final String[] onames = new String[ovars.length];
+        for (int i = 0; i < ivars.length; i++)
+        {
+            inames[i] = ivars[i].getName();
+        }
+        for (int o = 0; o < ovars.length; o++)
+        {
+            onames[o] = ovars[o].getName();
+        }
+
+        return new Scenario()
+        {
+            @Override
+            public double run(int k)
+            {
+                for (int i = 0; i < inames.length; i++)
+                {
+                    rule_base.fuzzifyVariable(inames[i],
+                        x[(k + 97 * i) & 1023]);
+                }
+
+                rule_base.evaluateRules();
+
+                double sum = 0.;
+                for (int o = 0; o < onames.length; o++)
+                {
+                    sum += rule_base.getCrispOutput(onames[o]);
+                }
+                return sum;
+            }
+        };
+    }
+
+    /**
+     * Returns a scenario that fuzzifies and reads variables by slot.
+     * @param rule_base rule base.
+     * @param x samples.
+     * @return scenario.
+     */
+    private static Scenario bySlot(final RuleBase rule_base, final double[] x)
+    {
+        final int ninputs = rule_base.getInputVariables().length;
+        final int noutputs = rule_base.getOutputVariables().length;
+
+        return new Scenario()
+        {
+            @Override
+            public double run(int k)
+            {
+                for (int i = 0; i < ninputs; i++)
+                {
+                    rule_base.fuzzify(i, x[(k + 97 * i) & 1023]);
+                }
+
+                rule_base.evaluateRules();
+
+                double sum = 0.;
+                for (int o = 0; o < noutputs; o++)
+                {
+                    sum += rule_base.getCrispOutput(o);
+                }
+                return sum;
+            }
+        };
+    }
+
+    /**
+     * Returns a scenario that fuzzifies and reads variable objects.
+     * @param rule_base rule base.
+     * @param x samples.
+     * @return scenario.
+     */
+    private static Scenario byVariable(final RuleBase rule_base,
+        final double[] x)
+    {
+        final Variable[] ivars = rule_base.getInputVariables();
+        final OutputVariable[] ovars = rule_base.getOutputVariables();
+
+        return new Scenario()
+        {
+            @Override
+            public double run(int k)
+            {
+                for (int i = 0; i < ivars.length; i++)
+                {
+                    ivars[i].fuzzify(x[(k + 97 * i) & 1023]);
+                }
+
+                rule_base.evaluateRules();
+
+                double sum = 0.;
+                for (int o = 0; o < ovars.length; o++)
+                {
+                    sum += rule_base.getCrispOutput(ovars[o]);
+                }
+                return sum;
+            }
+        };
+    }
+
+    /**
+     * Returns a scenario that evaluates the compiled rule base.
+     * @param rule_base rule base.
+     * @param x samples.
+     * @return scenario.
+     */
+    private static Scenario compiled(RuleBase rule_base, final double[] x)
+    {
+        final CompiledRuleBase compiled = rule_base.compile();
+        final EvalContext ctx = compiled.createContext();
+        final double[] inputs = new double[compiled.getNumberOfInputs()];
+        final double[] outputs = new double[compiled.getNumberOfOutputs()];
+
+        return new Scenario()
+        {
+            @Override
+            public double run(int k)
+            {
+                for (int i = 0; i < inputs.length; i++)
+                {
+                    inputs[i] = x[(k + 97 * i) & 1023];
+                }
+
+                compiled.evaluate(inputs, outputs, ctx);
+
+                return outputs[0];
+            }
+        };
+    }
+
+    /**
+     * Warms the scenario up, then measures the bytes it allocates.
+     * @param name name to report.
+     * @param scenario scenario.
+     * @return true if the scenario allocated.
+     */
+    private static boolean check(String name, Scenario scenario)
+    {
+        double sink = 0.;
+        for (int i = 0; i < WARMUP; i++)
+        {
+            sink += scenario.run(i);
+        }
+
+        long id = Thread.currentThread().getId();
+
+        //  Reading the counter may itself allocate; measure that first.
+        long before = threads.getThreadAllocatedBytes(id);
+        long overhead = threads.getThreadAllocatedBytes(id) - before;
+
+        before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            sink += scenario.run(i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before -
+            overhead;
+
+        System.out.println(name + ": " + Math.max(allocated, 0) +
+            " bytes allocated in " + ITERATIONS + " evaluations (" + sink + ")");
+
+        if (allocated > 0)
+        {
+            System.out.println("FAILED: " + name + " allocates");
+            return true;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,331 @@
+/* %%
+ *
+ * JFuzzy
+ *
+ * Copyright 2006 Jeff Ridder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ridderware.jfuzzy.vector;
+
+import com.ridderware.jfuzzy.AccumulationKernel;
+import com.ridderware.jfuzzy.RuleBase;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Accumulation kernels written with the Vector API.  AccumulationKernel
+ * loads them through create() when this module is on the class path and
+ * the JVM is started with --add-modules jdk.incubator.vector, and falls
+ * back to its scalar kernels otherwise.
+ *
+ * Each loop works a full vector of discrete values at a time and finishes
+ * the remainder with scalar code.  Accumulation gives exactly the scalar
+ * results; the sums for defuzzification add in a different order, so they
+ * may differ from the scalar sums in the last bits.
+ *
+ * @author Jeff Ridder
+ */
+public final class VectorKernels
+{
+    private static final VectorSpecies<Double> SPECIES =
+        DoubleVector.SPECIES_PREFERRED;
+
+    //  0, 1, .. lanes - 1, for positions of the discrete values.
+    private static final DoubleVector IOTA = iota();
+
+    private VectorKernels()
+    {
+    }
+
+    /**
+     * Returns the vector kernel for the pair of methods.
+     * @param activation_method activation method.
+     * @param accumulation_method accumulation method.
+     * @return kernel.
+     */
+    public static AccumulationKernel create(
+        RuleBase.ActivationMethod activation_method,
+        RuleBase.AccumulationMethod accumulation_method)
+    {
+        switch (activation_method)
+        {
+            case PROD:
+                return accumulation_method == RuleBase.AccumulationMethod.BSUM ?
+                    new ProdBoundedSum() : new ProdMax();
+            default:
+                return accumulation_method == RuleBase.AccumulationMethod.BSUM ?
+                    new MinBoundedSum() : new MinMax();
+        }
+    }
+
+    /**
+     * Returns the vector 0, 1, .. lanes - 1.
+     * @return vector of lane numbers.
+     */
+    private static DoubleVector iota()
+    {
+        double[] lanes = new double[SPECIES.length()];
+        for (int i = 0; i < lanes.length; i++)
+        {
+            lanes[i] = i;
+        }
+
+        return DoubleVector.fromArray(SPECIES, lanes, 0);
+    }
+
+    /**
+     * Vector sums for defuzzification, shared by all the kernels.
+     */
+    private abstract static class VectorKernel extends AccumulationKernel
+    {
+        /**
+         * Creates a new instance of VectorKernel.
+         * @param activation_method activation method implemented.
+         * @param accumulation_method accumulation method implemented.
+         */
+        VectorKernel(RuleBase.ActivationMethod activation_method,
+            RuleBase.AccumulationMethod accumulation_method)
+        {
+            super(activation_method, accumulation_method);
+        }
+
+        @Override
+        public double sum(double[] values, int offset, int count)
+        {
+            DoubleVector sums = DoubleVector.zero(SPECIES);
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length())
+            {
+                sums = sums.add(DoubleVector.fromArray(SPECIES, values,
+                    offset + i));
+            }
+
+            double sum = sums.reduceLanes(VectorOperators.ADD);
+            for (; i < count; i++)
+            {
+                sum += values[offset + i];
+            }
+
+            return sum;
+        }
+
+        @Override
+        public double moment(double[] values, int offset, int count, double x0,
+            double dx)
+        {
+            DoubleVector moments = DoubleVector.zero(SPECIES);
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length())
+            {
+                DoubleVector x = IOTA.add(i).mul(dx).add(x0);
+                moments = moments.add(x.mul(DoubleVector.fromArray(SPECIES,
+                    values, offset + i)));
+            }
+
+            double moment = moments.reduceLanes(VectorOperators.ADD);
+            for (; i < count; i++)
+            {
+                moment += (x0 + i * dx) * values[offset + i];
+            }
+
+            return moment;
+        }
+
+        @Override
+        public int halfway(double[] values, int offset, int count, double half)
+        {
+            //  Skip whole vectors while the sum stays within half, then find
+            //  the value that exceeds it one at a time.
+            double sum = 0.;
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length())
+            {
+                double block = DoubleVector.fromArray(SPECIES, values,
+                    offset + i).reduceLanes(VectorOperators.ADD);
+                if (sum + block > half)
+                {
+                    break;
+                }
+                sum += block;
+            }
+
+            for (; i < count; i++)
+            {
+                sum += values[offset + i];
+
+                if (sum > half)
+                {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    /**
+     * MIN activation, MAX accumulation.
+     */
+    private static final class MinMax extends VectorKernel
+    {
+        /**
+         * Creates a new instance of MinMax.
+         */
+        MinMax()
+        {
+            super(RuleBase.ActivationMethod.MIN, RuleBase.AccumulationMethod.MAX);
+        }
+
+        @Override
+        public void accumulate(double level, double[] term, int term_offset,
+            double[] accumulator, int accumulator_offset, int count)
+        {
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length())
+            {
+                DoubleVector.fromArray(SPECIES, term, term_offset + i).
+                    min(level).
+                    max(DoubleVector.fromArray(SPECIES, accumulator,
+                        accumulator_offset + i)).
+                    intoArray(accumulator, accumulator_offset + i);
+            }
+
+            for (; i < count; i++)
+            {
+                double value = Math.min(level, term[term_offset + i]);
+                accumulator[accumulator_offset + i] =
+                    Math.max(value, accumulator[accumulator_offset + i]);
+            }
+        }
+    }
+
+    /**
+     * MIN activation, BSUM accumulation.
+     */
+    private static final class MinBoundedSum extends VectorKernel
+    {
+        /**
+         * Creates a new instance of MinBoundedSum.
+         */
+        MinBoundedSum()
+        {
+            super(RuleBase.ActivationMethod.MIN, RuleBase.AccumulationMethod.BSUM);
+        }
+
+        @Override
+        public void accumulate(double level, double[] term, int term_offset,
+            double[] accumulator, int accumulator_offset, int count)
+        {
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length())
+            {
+                DoubleVector.fromArray(SPECIES, term, term_offset + i).
+                    min(level).
+                    add(DoubleVector.fromArray(SPECIES, accumulator,
+                        accumulator_offset + i)).
+                    min(1.).
+                    intoArray(accumulator, accumulator_offset + i);
+            }
+
+            for (; i < count; i++)
+            {
+                double value = Math.min(level, term[term_offset + i]);
+                accumulator[accumulator_offset + i] =
+                    Math.min(1., value + accumulator[accumulator_offset + i]);
+            }
+        }
+    }
+
+    /**
+     * PROD activation, MAX accumulation.
+     */
+    private static final class ProdMax extends VectorKernel
+    {
+        /**
+         * Creates a new instance of ProdMax.
+         */
+        ProdMax()
+        {
+            super(RuleBase.ActivationMethod.PROD, RuleBase.AccumulationMethod.MAX);
+        }
+
+        @Override
+        public void accumulate(double level, double[] term, int term_offset,
+            double[] accumulator, int accumulator_offset, int count)
+        {
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length())
+            {
+                DoubleVector.fromArray(SPECIES, term, term_offset + i).
+                    mul(level).
+                    max(DoubleVector.fromArray(SPECIES, accumulator,
+                        accumulator_offset + i)).
+                    intoArray(accumulator, accumulator_offset + i);
+            }
+
+            for (; i < count; i++)
+            {
+                double value = level * term[term_offset + i];
+                accumulator[accumulator_offset + i] =
+                    Math.max(value, accumulator[accumulator_offset + i]);
+            }
+        }
+    }
+
+    /**
+     * PROD activation, BSUM accumulation.
+     */
+    private static final class ProdBoundedSum extends VectorKernel
+    {
+        /**
+         * Creates a new instance of ProdBoundedSum.
+         */
+        ProdBoundedSum()
+        {
+            super(RuleBase.ActivationMethod.PROD,
+                RuleBase.AccumulationMethod.BSUM);
+        }
+
+        @Override
+        public void accumulate(double level, double[] term, int term_offset,
+            double[] accumulator, int accumulator_offset, int count)
+        {
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length())
+            {
+                DoubleVector.fromArray(SPECIES, term, term_offset + i).
+                    mul(level).
+                    add(DoubleVector.fromArray(SPECIES, accumulator,
+                        accumulator_offset + i)).
+                    min(1.).
+                    intoArray(accumulator, accumulator_offset + i);
+            }
+
+            for (; i < count; i++)
+            {
+                double value = level * term[term_offset + i];
+                accumulator[accumulator_offset + i] =
+                    Math.min(1., value + accumulator[accumulator_offset + i]);
+            }
+        }
+    }
+}